@@ -0,0 +1,94 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * AggregateSnapshot.java
+ * Derived state saved next to attendance.csv (attendance.snap) so startup does not have to
+ * re-read the whole history: per-student present/total counts and the list of dates in the
+ * csv. The file is versioned, stamped with the size, mtime and CRC32 of the attendance.csv
+ * it was computed from, and ends with a CRC32 of its own contents; anything that does not
+ * match is ignored and the data is loaded the slow way. The csv's CRC32 is taken while the
+ * csv is written and recorded in attendance.idx too, so checking the stamp at startup never
+ * reads the csv: a rewrite by any of our writers with other contents changes the crc even
+ * when size and mtime come out the same. A csv edited by hand with size and mtime kept is
+ * not caught (nor is it by attendance.idx); the recompute command rebuilds both.
+ *
+ * Layout (DataOutputStream):
+ *   int magic "ATTS", int version, long csvSize, long csvLastModified, long csvCrc32,
+ *   int dateCount, dateCount x UTF date,
+ *   int studentCount, studentCount x (UTF id, int present, int total),
+ *   long crc32 of everything before it
+ */
+public class AggregateSnapshot {
+
+    private static final int MAGIC = 0x41545453; // "ATTS"
+    private static final int VERSION = 3;
+
+    public final Map<String, int[]> counts; // studentId -> {present, total}
+    public final List<String> dates;
+
+    public AggregateSnapshot(Map<String, int[]> counts, List<String> dates) {
+        this.counts = counts;
+        this.dates = dates;
+    }
+
+    /**
+     * Write the snapshot of csv, whose CRC32 its writer took as it wrote it.
+     */
+    public void write(File csv, long csvCrc, File snap) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(csv.length());
+            out.writeLong(csv.lastModified());
+            out.writeLong(csvCrc);
+            out.writeInt(dates.size());
+            for (String d : dates) out.writeUTF(d);
+            out.writeInt(counts.size());
+            for (Map.Entry<String, int[]> e : counts.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeInt(e.getValue()[0]);
+                out.writeInt(e.getValue()[1]);
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        File tmp = new File(snap.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            bytes.writeTo(out);
+            out.writeLong(crc.getValue());
+        }
+        Files.move(tmp.toPath(), snap.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read a snapshot, or null if it is missing, corrupt, another version, or was made from
+     * a different attendance.csv than the one of this size, mtime and csvCrc (as recorded in
+     * attendance.idx).
+     */
+    public static AggregateSnapshot read(File snap, File csv, long csvCrc) throws IOException {
+        if (!snap.exists() || snap.length() < 48) return null;
+        byte[] data = Files.readAllBytes(snap.toPath());
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - 8);
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+            if (in.readLong() != csv.length() || in.readLong() != csv.lastModified()) return null;
+            if (in.readLong() != csvCrc) return null;
+            List<String> dates = new ArrayList<>();
+            for (int i = in.readInt(); i > 0; i--) dates.add(in.readUTF());
+            Map<String, int[]> counts = new HashMap<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                counts.put(in.readUTF(), new int[]{in.readInt(), in.readInt()});
+            }
+            if (in.readLong() != crc.getValue()) return null;
+            return new AggregateSnapshot(counts, dates);
+        } catch (EOFException | UTFDataFormatException ex) {
+            return null;
+        }
+    }
+}
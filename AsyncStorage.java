@@ -0,0 +1,84 @@
+import javax.swing.SwingUtilities;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * AsyncStorage.java
+ * Runs FileStorage / journal work on a background thread so the Swing event dispatch
+ * thread never waits on disk. Tasks run one at a time in submit order, and each returned
+ * future is completed on the EDT, so callbacks chained with thenAccept can touch Swing
+ * components directly.
+ */
+public class AsyncStorage {
+
+    /**
+     * Notified on the EDT whenever the number of queued/running tasks changes.
+     */
+    public interface ProgressListener {
+        void progress(int pending, String label);
+    }
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "storage-io");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Map<String, CompletableFuture<?>> latest = new HashMap<>();
+    private final ProgressListener listener;
+    private int pending;
+
+    public AsyncStorage(ProgressListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Queue a task. Must be called on the EDT.
+     */
+    public <T> CompletableFuture<T> submit(String label, Callable<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        pending++;
+        listener.progress(pending, label);
+        executor.execute(() -> {
+            // cancelled while still queued: skip the work entirely
+            if (!result.isDone()) {
+                try {
+                    T value = task.call();
+                    SwingUtilities.invokeLater(() -> result.complete(value));
+                } catch (Exception ex) {
+                    SwingUtilities.invokeLater(() -> result.completeExceptionally(ex));
+                }
+            }
+            SwingUtilities.invokeLater(() -> {
+                pending--;
+                listener.progress(pending, pending == 0 ? "" : label);
+            });
+        });
+        return result;
+    }
+
+    /**
+     * Queue a task that supersedes any earlier task with the same key. The earlier one is
+     * cancelled: skipped if it has not started, and its result dropped if it has.
+     * Must be called on the EDT.
+     */
+    public <T> CompletableFuture<T> submitLatest(String key, String label, Callable<T> task) {
+        CompletableFuture<?> prev = latest.get(key);
+        if (prev != null) prev.cancel(false);
+        CompletableFuture<T> result = submit(label, task);
+        latest.put(key, result);
+        result.whenComplete((v, ex) -> latest.remove(key, result));
+        return result;
+    }
+
+    /**
+     * Wait for queued writes to finish, e.g. before the application exits.
+     */
+    public void shutdown(long timeoutMillis) {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
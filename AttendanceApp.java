@@ -1,31 +1,71 @@
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.*;
 import java.time.LocalDate;
 import java.time.format.DateTimeParseException;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 public class AttendanceApp extends JFrame {
 
-    private DefaultTableModel studentModel;    // shows student list with percentage
-    private DefaultTableModel attendanceModel; // shows attendance for selected date
+    private StudentTableModel studentModel;       // shows student list with percentage
+    private AttendanceTableModel attendanceModel; // shows attendance for selected date
     private JTable tblStudents;
     private JTable tblAttendance;
 
     private JTextField txtId, txtName, txtDate;
+    private JTextField txtFrom, txtTo;
+    private JTextField txtSearch;
+    private JLabel lblMatches;
+    private JComboBox<String> cmbRange;
+    private LocalDate rangeFrom, rangeTo; // range column and export; null when not set
     private JLabel lblPercentage;
-    private List<Student> students = new ArrayList<>();
+    private JLabel lblStatus;
+    private JLabel lblMessage;
+    private JProgressBar progress;
+    // roster with id and name-prefix indexes; the tables show roster.search(txtSearch)
+    private RosterIndex roster = new RosterIndex();
+    private AttendanceStore store = new AttendanceStore();
+    private AttendanceJournal journal = new AttendanceJournal(store);
+    private DataWatcher watcher;  // picks up other writers' changes; null in remote mode
+    private String shownDate;     // date whose statuses the attendance table holds
+    // all file I/O goes through here so the EDT never blocks on disk
+    private AsyncStorage async;
+    // set when working against an AttendanceServer instead of the local files
+    private final AttendanceClient remote;
+    // shard whose files the app works on (the working directory when not sharded); null in remote mode
+    private volatile ShardManifest.Shard shard;
+    private final String baseTitle;
+    // why writes are refused (still loading, or the last load failed); null once loaded
+    private String writeBlocked = "The data is still loading.";
 
     public AttendanceApp(String username) {
-        setTitle("Student Attendance System - Logged in as " + username);
+        this(username, null);
+    }
+
+    public AttendanceApp(String username, AttendanceClient remote) {
+        this.remote = remote;
+        this.baseTitle = "Student Attendance System - Logged in as " + username
+                + (remote != null ? " @ " + remote.getBaseUrl() : "");
+        if (remote == null) shard = firstShard();
+        updateTitle();
         setSize(900, 560);
-        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
+        addWindowListener(new WindowAdapter() {
+            public void windowClosing(WindowEvent e) { exitApp(); }
+        });
         setLocationRelativeTo(null);
 
         initMenu();
         initUI();
+        async = new AsyncStorage(this::showProgress);
 
         loadInitialData();
 
@@ -37,17 +77,39 @@ public class AttendanceApp extends JFrame {
         JMenu file = new JMenu("File");
         JMenuItem miSave = new JMenuItem("Save All");
         JMenuItem miLoad = new JMenuItem("Load All");
+        JMenuItem miShard = new JMenuItem("Open Shard...");
         JMenuItem miExport = new JMenuItem("Export Attendance (date)");
+        JMenuItem miExportRange = new JMenuItem("Export Attendance Range...");
+        JMenuItem miReport = new JMenuItem("Generate Reports");
+        JMenuItem miDefaulters = new JMenuItem("Defaulter List...");
+        JMenuItem miBinary = new JMenuItem("Use Binary Attendance File");
+        JMenuItem miImportStudents = new JMenuItem("Import Students CSV...");
+        JMenuItem miImportAttendance = new JMenuItem("Import Attendance CSV...");
         JMenuItem miExit = new JMenuItem("Exit");
 
         miSave.addActionListener(e -> saveAll());
         miLoad.addActionListener(e -> loadInitialData());
+        miShard.addActionListener(e -> openShard());
         miExport.addActionListener(e -> exportAttendanceForDate());
-        miExit.addActionListener(e -> System.exit(0));
+        miExportRange.addActionListener(e -> exportAttendanceRange());
+        miReport.addActionListener(e -> generateReports());
+        miDefaulters.addActionListener(e -> showDefaulters());
+        miBinary.addActionListener(e -> enableBinaryStorage());
+        miImportStudents.addActionListener(e -> importFile(true));
+        miImportAttendance.addActionListener(e -> importFile(false));
+        miExit.addActionListener(e -> exitApp());
 
         file.add(miSave);
         file.add(miLoad);
+        file.add(miShard);
         file.add(miExport);
+        file.add(miExportRange);
+        file.add(miReport);
+        file.add(miDefaulters);
+        file.add(miBinary);
+        file.addSeparator();
+        file.add(miImportStudents);
+        file.add(miImportAttendance);
         file.addSeparator();
         file.add(miExit);
 
@@ -64,7 +126,7 @@ public class AttendanceApp extends JFrame {
 
     private void initUI() {
         // Top panel - add student
-        JPanel top = new JPanel(new GridLayout(2,1));
+        JPanel top = new JPanel(new GridLayout(3,1));
         JPanel addPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 10, 8));
         addPanel.setBorder(BorderFactory.createTitledBorder("Add Student"));
 
@@ -104,31 +166,70 @@ public class AttendanceApp extends JFrame {
         datePanel.add(btnMarkPresent);
         datePanel.add(btnMarkAbsent);
 
+        // Percentage over a date range
+        JPanel rangePanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 10, 8));
+        rangePanel.setBorder(BorderFactory.createTitledBorder("Percentage Range"));
+
+        cmbRange = new JComboBox<>(new String[]{"None", "This month", "Last 4 weeks", "This term", "Custom"});
+        cmbRange.addActionListener(e -> applyRangePreset());
+        rangePanel.add(cmbRange);
+        rangePanel.add(new JLabel("From:"));
+        txtFrom = new JTextField(10);
+        rangePanel.add(txtFrom);
+        rangePanel.add(new JLabel("To:"));
+        txtTo = new JTextField(10);
+        rangePanel.add(txtTo);
+        JButton btnRange = new JButton("Apply Range");
+        btnRange.addActionListener(e -> applyRange());
+        rangePanel.add(btnRange);
+
         top.add(addPanel);
         top.add(datePanel);
+        top.add(rangePanel);
 
         add(top, BorderLayout.NORTH);
 
         // Center - tables
-        studentModel = new DefaultTableModel(new String[]{"ID","Name","Attendance %"}, 0) {
-            public boolean isCellEditable(int r, int c) { return false; }
-        };
+        studentModel = new StudentTableModel();
         tblStudents = new JTable(studentModel);
-        tblStudents.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        tblStudents.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
 
-        attendanceModel = new DefaultTableModel(new String[]{"ID","Name","Status (P/A)"}, 0) {
-            public boolean isCellEditable(int r, int c) { return false; }
-        };
+        attendanceModel = new AttendanceTableModel();
         tblAttendance = new JTable(attendanceModel);
         tblAttendance.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
 
         JSplitPane split = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT,
                 new JScrollPane(tblStudents), new JScrollPane(tblAttendance));
         split.setResizeWeight(0.45);
-        add(split, BorderLayout.CENTER);
+
+        // live search filters both tables on every keystroke
+        JPanel searchPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 10, 4));
+        searchPanel.add(new JLabel("Search (ID or name):"));
+        txtSearch = new JTextField(20);
+        txtSearch.getDocument().addDocumentListener(new DocumentListener() {
+            public void insertUpdate(DocumentEvent e) { applySearch(); }
+            public void removeUpdate(DocumentEvent e) { applySearch(); }
+            public void changedUpdate(DocumentEvent e) { applySearch(); }
+        });
+        searchPanel.add(txtSearch);
+        lblMatches = new JLabel("");
+        searchPanel.add(lblMatches);
+
+        JPanel center = new JPanel(new BorderLayout());
+        center.add(searchPanel, BorderLayout.NORTH);
+        center.add(split, BorderLayout.CENTER);
+        add(center, BorderLayout.CENTER);
 
         // Bottom panel - actions and totals
         JPanel bottom = new JPanel(new FlowLayout(FlowLayout.RIGHT, 12, 8));
+        lblMessage = new JLabel("");
+        bottom.add(lblMessage);
+        lblStatus = new JLabel("");
+        progress = new JProgressBar();
+        progress.setIndeterminate(true);
+        progress.setVisible(false);
+        bottom.add(lblStatus);
+        bottom.add(progress);
         lblPercentage = new JLabel("Select a student to see details");
         bottom.add(lblPercentage);
 
@@ -142,76 +243,341 @@ public class AttendanceApp extends JFrame {
             JOptionPane.showMessageDialog(this, "Enter both ID and name", "Input Error", JOptionPane.ERROR_MESSAGE);
             return;
         }
-        for (Student s : students) {
-            if (s.getId().equals(id)) {
-                JOptionPane.showMessageDialog(this, "ID already exists", "Error", JOptionPane.ERROR_MESSAGE);
-                return;
-            }
+        if (!roster.add(new Student(id, name))) {
+            JOptionPane.showMessageDialog(this, "ID already exists", "Error", JOptionPane.ERROR_MESSAGE);
+            return;
         }
-        Student s = new Student(id, name);
-        students.add(s);
-        refreshStudentTable();
+        applySearch();
         txtId.setText(""); txtName.setText("");
     }
 
     private void removeSelectedStudent() {
-        int r = tblStudents.getSelectedRow();
-        if (r == -1) {
+        if (!checkWritable()) return;
+        int[] rows = tblStudents.getSelectedRows();
+        if (rows.length == 0) {
             JOptionPane.showMessageDialog(this, "Select a student to remove", "No selection", JOptionPane.WARNING_MESSAGE);
             return;
         }
-        String id = studentModel.getValueAt(r, 0).toString();
-        int confirm = JOptionPane.showConfirmDialog(this, "Remove student " + id + "?", "Confirm", JOptionPane.YES_NO_OPTION);
+        List<String> ids = new ArrayList<>();
+        for (int r : rows) ids.add(studentModel.getStudentAt(r).getId());
+        String what = ids.size() == 1 ? "student " + ids.get(0) : ids.size() + " students";
+        int confirm = JOptionPane.showConfirmDialog(this, "Remove " + what + "?", "Confirm", JOptionPane.YES_NO_OPTION);
         if (confirm == JOptionPane.YES_OPTION) {
-            students.removeIf(st -> st.getId().equals(id));
-            // also remove attendance records for that student
+            for (String id : ids) roster.remove(id);
+            applySearch();
+            // also remove their attendance records: one tombstone write for the whole selection
+            AttendanceJournal j = journal;
+            async.submit("Removing " + what + "...", () -> {
+                j.removeStudents(ids);
+                return null;
+            }).whenComplete((v, ex) -> {
+                if (ex instanceof CancellationException) return;
+                if (ex != null) {
+                    // the rows are already gone from the tables and the store may have dropped
+                    // the records; show what is really on disk again
+                    Metrics.error("remove.student", ex);
+                    JOptionPane.showMessageDialog(this, "Error removing " + what + ": " + ex.getMessage()
+                            + "\nThe data will be reloaded.", "Remove Error", JOptionPane.ERROR_MESSAGE);
+                    loadInitialData();
+                    return;
+                }
+                refreshStudentTable();
+                loadAttendanceForDate();
+            });
+        }
+    }
+
+    /**
+     * Fill From/To for the chosen preset. A term is a half year, January-June or July-December.
+     */
+    private void applyRangePreset() {
+        LocalDate today = LocalDate.now();
+        switch (String.valueOf(cmbRange.getSelectedItem())) {
+            case "None":
+                txtFrom.setText("");
+                txtTo.setText("");
+                break;
+            case "This month":
+                txtFrom.setText(today.withDayOfMonth(1).toString());
+                txtTo.setText(today.toString());
+                break;
+            case "Last 4 weeks":
+                txtFrom.setText(today.minusWeeks(4).plusDays(1).toString());
+                txtTo.setText(today.toString());
+                break;
+            case "This term":
+                txtFrom.setText(today.withDayOfYear(1).withMonth(today.getMonthValue() <= 6 ? 1 : 7).toString());
+                txtTo.setText(today.toString());
+                break;
+            default:
+                return; // Custom: keep whatever is typed
+        }
+        applyRange();
+    }
+
+    private void applyRange() {
+        String from = txtFrom.getText().trim(), to = txtTo.getText().trim();
+        if (from.isEmpty() && to.isEmpty()) {
+            rangeFrom = rangeTo = null;
+        } else if (!isValidDate(from) || !isValidDate(to) || LocalDate.parse(from).isAfter(LocalDate.parse(to))) {
+            JOptionPane.showMessageDialog(this, "Enter From and To as YYYY-MM-DD, From not after To", "Date Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        } else {
+            rangeFrom = LocalDate.parse(from);
+            rangeTo = LocalDate.parse(to);
+        }
+        studentModel.setRange(rangeFrom, rangeTo);
+        computePercentages();
+    }
+
+    private void refreshStudentTable() {
+        studentModel.setData(visibleStudents());
+        computePercentages();
+    }
+
+    /**
+     * Recompute every student's percentages on the storage thread and hand the table the
+     * numbers, so painting never takes the store's lock. A newer call replaces one still queued.
+     */
+    private void computePercentages() {
+        AttendanceStore st = store;
+        List<String> ids = new ArrayList<>(roster.ids());
+        LocalDate from = rangeFrom, to = rangeTo;
+        async.submitLatest("percentages", "Computing percentages...", () -> percentages(st, ids, from, to))
+                .whenComplete((p, ex) -> {
+                    if (ex instanceof CancellationException) return;
+                    if (ex != null) Metrics.error("refresh.students", ex);
+                    else if (st == store) studentModel.setPercentages(p);
+                });
+    }
+
+    /**
+     * Recompute the percentages of only these students, e.g. after marking them.
+     */
+    private void updatePercentages(Collection<String> ids) {
+        AttendanceStore st = store;
+        List<String> list = new ArrayList<>(ids);
+        LocalDate from = rangeFrom, to = rangeTo;
+        async.submit("Computing percentages...", () -> percentages(st, list, from, to))
+                .whenComplete((p, ex) -> {
+                    if (ex != null) Metrics.error("refresh.students", ex);
+                    else if (st == store && Objects.equals(from, rangeFrom) && Objects.equals(to, rangeTo)) {
+                        studentModel.updatePercentages(p);
+                    }
+                });
+    }
+
+    // runs on the storage thread; the first range query builds the range index here
+    private static Map<String, double[]> percentages(AttendanceStore st, Collection<String> ids,
+                                                     LocalDate from, LocalDate to) {
+        try (Metrics.Span span = Metrics.span("refresh.students")) {
+            Map<String, double[]> p = st.getPercentages(ids, from, to);
+            span.finish(p.size(), 0);
+            return p;
+        }
+    }
+
+    private List<Student> visibleStudents() {
+        return roster.search(txtSearch.getText());
+    }
+
+    /**
+     * Re-filter both tables after the search text or the roster changed.
+     */
+    private void applySearch() {
+        try (Metrics.Span span = Metrics.span("refresh.search")) {
+            List<Student> visible = visibleStudents();
+            studentModel.setData(visible);
+            attendanceModel.setStudents(visible);
+            lblMatches.setText(txtSearch.getText().trim().isEmpty() ? ""
+                    : visible.size() + " of " + roster.size());
+            span.finish(visible.size(), 0);
+        }
+    }
+
+    private void updateTitle() {
+        setTitle(baseTitle + (shard == null || shard.name.isEmpty() ? "" : " [" + shard + "]"));
+    }
+
+    /**
+     * The first shard in shards.manifest, or the working directory when the data is not sharded.
+     */
+    private static ShardManifest.Shard firstShard() {
+        try {
+            List<ShardManifest.Shard> list = ShardManifest.read(FileStorage.defaultDir()).shards();
+            if (!list.isEmpty()) return list.get(0);
+        } catch (IOException ex) {
+            Metrics.error("load.manifest", ex);
+        }
+        return new ShardManifest.Shard("", FileStorage.defaultDir(), null, null);
+    }
+
+    /**
+     * Switch to another shard (a section or a term) and load only its files.
+     */
+    private void openShard() {
+        if (remote != null) {
+            JOptionPane.showMessageDialog(this, "The server serves a single data directory.", "Open Shard", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        ShardManifest manifest;
+        try {
+            manifest = ShardManifest.read(FileStorage.defaultDir());
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(this, "Cannot read " + ShardManifest.MANIFEST_FILE + ": " + ex.getMessage(), "Open Shard", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        if (!manifest.isSharded() || manifest.shards().isEmpty()) {
+            JOptionPane.showMessageDialog(this, "The data is not split into shards.\nUse: java Main shard section|term FILE",
+                    "Open Shard", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        ShardManifest.Shard[] options = manifest.shards().toArray(new ShardManifest.Shard[0]);
+        ShardManifest.Shard current = manifest.get(shard.name);
+        Object choice = JOptionPane.showInputDialog(this, "Shard:", "Open Shard", JOptionPane.QUESTION_MESSAGE,
+                null, options, current != null ? current : options[0]);
+        if (choice == null) return;
+        shard = (ShardManifest.Shard) choice;
+        updateTitle();
+        loadInitialData();
+    }
+
+    private void loadInitialData() {
+        AttendanceJournal old = journal;
+        File dir = shard != null ? shard.dir : null;
+        stopWatcher();
+        writeBlocked = "The data is still loading.";
+        async.submit("Loading data...", () -> {
+            // write out anything the old journal still holds before re-reading the files
             try {
-                List<String[]> all = FileStorage.loadAttendanceAll();
-                List<String[]> keep = new ArrayList<>();
-                for (String[] rec : all) if (!rec[1].equals(id)) keep.add(rec);
-                FileStorage.saveAttendance(keep);
+                old.close();
             } catch (Exception ex) {
-                // ignore if file absent
+                Metrics.error("journal.close", ex);
+            }
+            LoadedData d = new LoadedData();
+            if (remote == null) {
+                try {
+                    // baseline before reading, so changes made while loading arrive afterwards
+                    d.handler = new WatchHandler();
+                    d.watcher = new DataWatcher(dir, d.handler);
+                } catch (IOException ex) {
+                    Metrics.error("watch", ex);
+                }
+            }
+            try {
+                d.roster = new RosterIndex(remote != null ? remote.loadStudents() : FileStorage.loadStudents(dir));
+            } catch (Exception ex) {
+                Metrics.error("load.students", ex);
+                d.roster = new RosterIndex();
+                d.error = "Students could not be loaded: " + ex.getMessage();
+            }
+            try {
+                d.store = remote != null ? remote.loadStore() : AttendanceStore.load(dir);
+            } catch (Exception ex) {
+                Metrics.error("load.store", ex);
+                // still tied to dir, so nothing can resolve against the working directory
+                d.store = AttendanceStore.empty(dir);
+                if (d.error == null) d.error = "Attendance could not be loaded: " + ex.getMessage();
+            }
+            return d;
+        }).thenAccept(d -> {
+            roster = d.roster;
+            store = d.store;
+            journal = remote != null ? remote.journal(store) : new AttendanceJournal(store);
+            // saving what failed to load would overwrite the files with empty data
+            writeBlocked = d.error;
+            if (d.error != null) {
+                JOptionPane.showMessageDialog(this, d.error + "\nSaving is disabled until the data loads (File > Load All).",
+                        "Load Error", JOptionPane.ERROR_MESSAGE);
             }
             refreshStudentTable();
             loadAttendanceForDate();
-        }
+            if (d.watcher != null) {
+                d.handler.journal = journal;
+                d.handler.store = store;
+                watcher = d.watcher;
+                watcher.start();
+            }
+        });
     }
 
-    private void refreshStudentTable() {
-        studentModel.setRowCount(0);
-        for (Student s : students) {
-            double pct = computeAttendancePercentage(s.getId());
-            studentModel.addRow(new Object[]{s.getId(), s.getName(), String.format("%.2f", pct)});
-        }
+    /**
+     * False, after telling the user why, while the data is loading or failed to load.
+     */
+    private boolean checkWritable() {
+        if (writeBlocked == null) return true;
+        JOptionPane.showMessageDialog(this, writeBlocked + "\nNothing was saved.", "Cannot Save", JOptionPane.WARNING_MESSAGE);
+        return false;
     }
 
-    private double computeAttendancePercentage(String studentId) {
+    private void stopWatcher() {
+        if (watcher == null) return;
         try {
-            List<String[]> all = FileStorage.loadAttendanceAll();
-            int present = 0, total = 0;
+            watcher.close();
+        } catch (IOException ex) {
+            Metrics.error("watch", ex);
+        }
+        watcher = null;
+    }
+
+    /**
+     * Applies changes other writers made to the files: appended students and journal
+     * records go straight into the roster and store and repaint only their rows; a rewritten
+     * file (or any change to attendance.csv) means a full reload.
+     */
+    private class WatchHandler implements DataWatcher.Listener {
+        // the data this watcher was started with; events for data since replaced are dropped
+        AttendanceJournal journal;
+        AttendanceStore store;
+
+        public void studentsAppended(List<Student> students) {
+            SwingUtilities.invokeLater(() -> {
+                if (store != AttendanceApp.this.store) return;
+                List<String> added = new ArrayList<>();
+                for (Student s : students) {
+                    if (roster.add(s)) added.add(s.getId());
+                }
+                if (added.isEmpty()) return;
+                // new students come last in roster order, so the visible lists only grow
+                List<Student> visible = visibleStudents();
+                studentModel.appendRows(visible);
+                attendanceModel.appendRows(visible);
+                updatePercentages(added);
+                if (!txtSearch.getText().trim().isEmpty()) lblMatches.setText(visible.size() + " of " + roster.size());
+            });
+        }
+
+        public void journalAppended(List<String[]> records) {
+            // applied here on the watcher thread; the store has its own lock
+            List<String[]> applied = journal.applyExternal(records);
+            if (applied.isEmpty()) return;
+            Set<String> ids = new HashSet<>();
             Set<String> dates = new HashSet<>();
-            for (String[] r : all) {
-                if (r[1].equals(studentId)) {
-                    total++;
-                    if (r[2].equalsIgnoreCase("P")) present++;
+            boolean removed = false;
+            for (String[] r : applied) {
+                if (r[0].equals("T")) {
+                    ids.add(r[1]);
+                    removed = true;
+                } else {
+                    dates.add(r[1]);
+                    ids.add(r[2]);
                 }
             }
-            if (total == 0) return 0.0;
-            return (present * 100.0) / total;
-        } catch (Exception ex) {
-            return 0.0;
+            boolean anyRemoved = removed;
+            SwingUtilities.invokeLater(() -> {
+                if (store != AttendanceApp.this.store) return;
+                updatePercentages(ids);
+                if (shownDate != null && (anyRemoved || dates.contains(shownDate))) {
+                    attendanceModel.updateStatuses(store.getForDate(shownDate), ids);
+                }
+            });
         }
-    }
 
-    private void loadInitialData() {
-        try {
-            students = FileStorage.loadStudents();
-        } catch (Exception ex) {
-            students = new ArrayList<>();
+        public void rewritten(String file) {
+            SwingUtilities.invokeLater(() -> {
+                if (store == AttendanceApp.this.store) loadInitialData();
+            });
         }
-        refreshStudentTable();
-        loadAttendanceForDate();
     }
 
     private void loadAttendanceForDate() {
@@ -220,24 +586,20 @@ public class AttendanceApp extends JFrame {
             JOptionPane.showMessageDialog(this, "Enter date in YYYY-MM-DD", "Date Error", JOptionPane.ERROR_MESSAGE);
             return;
         }
-        attendanceModel.setRowCount(0);
-        try {
-            // build a map of studentId -> status for that date
-            Map<String, String> map = new HashMap<>();
-            List<String[]> recs = FileStorage.getAttendanceForDate(date);
-            for (String[] r : recs) map.put(r[1], r[2]);
-
-            // show every student with P/A or blank
-            for (Student s : students) {
-                String st = map.getOrDefault(s.getId(), "");
-                attendanceModel.addRow(new Object[]{s.getId(), s.getName(), st});
+        // studentId -> status for that date; a newer date request supersedes this one
+        AttendanceStore st0 = store;
+        async.submitLatest("date", "Loading " + date + "...", () -> {
+            try (Metrics.Span span = Metrics.span("lookup.date")) {
+                Map<String, String> map = remote != null ? remote.getForDate(date) : st0.getForDate(date);
+                span.finish(map.size(), 0);
+                return map;
             }
-        } catch (Exception ex) {
-            // no file - just show students empty
-            for (Student s : students) {
-                attendanceModel.addRow(new Object[]{s.getId(), s.getName(), ""});
-            }
-        }
+        })
+                // show every student with P/A or blank
+                .thenAccept(map -> {
+                    shownDate = date;
+                    attendanceModel.setData(visibleStudents(), map);
+                });
     }
 
     private boolean isValidDate(String date) {
@@ -250,6 +612,7 @@ public class AttendanceApp extends JFrame {
     }
 
     private void markSelectedAttendance(String status) {
+        if (!checkWritable()) return;
         int[] rows = tblAttendance.getSelectedRows();
         if (rows.length == 0) {
             JOptionPane.showMessageDialog(this, "Select rows in attendance table to mark", "No Selection", JOptionPane.WARNING_MESSAGE);
@@ -260,68 +623,59 @@ public class AttendanceApp extends JFrame {
             JOptionPane.showMessageDialog(this, "Enter valid date YYYY-MM-DD", "Date Error", JOptionPane.ERROR_MESSAGE);
             return;
         }
-
-        // load all existing attendance records
-        List<String[]> all;
-        try { all = FileStorage.loadAttendanceAll(); } catch (Exception ex) { all = new ArrayList<>(); }
-
-        // convert to map for easy replace, key = date+id
-        Map<String, String> map = new HashMap<>();
-        for (String[] r : all) map.put(r[0] + "|" + r[1], r[2]);
-
-        for (int r : rows) {
-            String id = attendanceModel.getValueAt(r, 0).toString();
-            map.put(date + "|" + id, status);
+        // a term shard only holds its own dates; another term's marks belong in that shard
+        if (shard != null && !shard.covers(date)) {
+            JOptionPane.showMessageDialog(this, date + " is outside term " + shard
+                    + ".\nOpen that term with File > Open Shard... to mark it.", "Outside Term", JOptionPane.WARNING_MESSAGE);
+            return;
         }
 
-        // convert map back to list
-        List<String[]> newAll = new ArrayList<>();
-        for (Map.Entry<String, String> e : map.entrySet()) {
-            String[] parts = e.getKey().split("\\|");
-            newAll.add(new String[]{parts[0], parts[1], e.getValue()});
+        List<String> ids = new ArrayList<>();
+        for (int r : rows) {
+            ids.add(attendanceModel.getStudentAt(r).getId());
         }
 
-        // ensure every student has an entry for the date (if absent - blank stays blank)
-        // but we will keep only what map has
-        try {
-            FileStorage.saveAttendance(newAll);
-            JOptionPane.showMessageDialog(this, "Attendance updated and saved.", "Saved", JOptionPane.INFORMATION_MESSAGE);
+        // journal only the changed rows; the latest record for date+id wins
+        AttendanceJournal j = journal;
+        whenDone(async.submit("Saving attendance...", () -> {
+            j.mark(date, ids, status);
+            return null;
+        }), v -> {
+            // no modal dialog here: marks are batched and written in the background
+            lblMessage.setText("Marked " + ids.size() + " as " + status + " for " + date);
             loadAttendanceForDate();
-            refreshStudentTable();
-        } catch (Exception ex) {
-            JOptionPane.showMessageDialog(this, "Error saving attendance: " + ex.getMessage(), "Save Error", JOptionPane.ERROR_MESSAGE);
-        }
+            updatePercentages(ids);
+        }, "Error saving attendance: ", "Save Error");
     }
 
     private void saveAll() {
-        try {
-            FileStorage.saveStudents(students);
-            // attendance already saved when marked; but save current attendance table snapshot too
-            // build list by loading existing and merging current date entries
-            List<String[]> all = FileStorage.loadAttendanceAll();
-            Map<String, String> map = new HashMap<>();
-            for (String[] r : all) map.put(r[0] + "|" + r[1], r[2]);
-
-            // also gather current table rows for date in txtDate
-            String date = txtDate.getText().trim();
-            if (isValidDate(date)) {
-                for (int i = 0; i < attendanceModel.getRowCount(); i++) {
-                    String id = String.valueOf(attendanceModel.getValueAt(i, 0));
-                    String st = String.valueOf(attendanceModel.getValueAt(i, 2));
-                    if (st != null && !st.trim().isEmpty()) map.put(date + "|" + id, st);
-                }
-            }
-
-            List<String[]> out = new ArrayList<>();
-            for (Map.Entry<String,String> e : map.entrySet()) {
-                String[] p = e.getKey().split("\\|");
-                out.add(new String[]{p[0], p[1], e.getValue()});
+        if (!checkWritable()) return;
+        // copy what the background task needs while still on the EDT
+        List<Student> snapshot = new ArrayList<>(roster.students());
+        String date = txtDate.getText().trim();
+        Map<String, String> tableRows = new LinkedHashMap<>();
+        if (isValidDate(date)) {
+            for (int i = 0; i < attendanceModel.getRowCount(); i++) {
+                String id = String.valueOf(attendanceModel.getValueAt(i, 0));
+                String st = String.valueOf(attendanceModel.getValueAt(i, 2));
+                if (st != null && !st.trim().isEmpty()) tableRows.put(id, st);
             }
-            FileStorage.saveAttendance(out);
-            JOptionPane.showMessageDialog(this, "Students and attendance saved.", "Saved", JOptionPane.INFORMATION_MESSAGE);
-        } catch (Exception ex) {
-            JOptionPane.showMessageDialog(this, "Save error: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
         }
+        AttendanceStore st0 = store;
+        AttendanceJournal j = journal;
+        whenDone(async.submit("Saving...", () -> {
+            saveStudents(snapshot);
+            // attendance already journaled when marked; but merge current attendance table snapshot too
+            for (Map.Entry<String, String> e : tableRows.entrySet()) {
+                if (!e.getValue().equals(st0.getStatus(date, e.getKey()))) {
+                    j.mark(date, Collections.singletonList(e.getKey()), e.getValue());
+                }
+            }
+            // fold the journal into attendance.csv
+            j.compactAsync().get();
+            return null;
+        }), v -> JOptionPane.showMessageDialog(this, "Students and attendance saved.", "Saved", JOptionPane.INFORMATION_MESSAGE),
+                "Save error: ", "Error");
     }
 
     private void exportAttendanceForDate() {
@@ -331,20 +685,246 @@ public class AttendanceApp extends JFrame {
             JOptionPane.showMessageDialog(this, "Invalid date format.", "Error", JOptionPane.ERROR_MESSAGE);
             return;
         }
-        try {
-            List<String[]> recs = FileStorage.getAttendanceForDate(date);
+        List<Student> snapshot = new ArrayList<>(roster.students());
+        AttendanceStore st0 = store;
+        LocalDate from = rangeFrom, to = rangeTo;
+        whenDone(async.submit("Exporting " + date + "...", () -> {
             File out = new File("attendance_export_" + date + ".csv");
-            try (PrintWriter pw = new PrintWriter(new FileWriter(out))) {
-                pw.println("StudentID,Name,Status");
-                Map<String, String> map = new HashMap<>();
-                for (String[] r : recs) map.put(r[1], r[2]);
-                for (Student s : students) {
-                    pw.println(s.getId() + "," + s.getName() + "," + map.getOrDefault(s.getId(), ""));
-                }
+            FileStorage.exportAttendanceForDate(snapshot, st0.getForDate(date), st0, from, to, out);
+            return out;
+        }), out -> JOptionPane.showMessageDialog(this, "Exported to " + out.getName(), "Exported", JOptionPane.INFORMATION_MESSAGE),
+                "Export error: ", "Error");
+    }
+
+    /**
+     * Export every recorded date of a range as a matrix or one file per date, optionally
+     * compressed. From/To default to the percentage range, else the current month.
+     */
+    private void exportAttendanceRange() {
+        LocalDate today = LocalDate.now();
+        JTextField from = new JTextField((rangeFrom != null ? rangeFrom : today.withDayOfMonth(1)).toString(), 10);
+        JTextField to = new JTextField((rangeTo != null ? rangeTo : today).toString(), 10);
+        JComboBox<String> layout = new JComboBox<>(new String[]{"Matrix (date x student)", "One file per date"});
+        JComboBox<String> compression = new JComboBox<>(new String[]{"None", "gzip", "zip"});
+        JPanel panel = new JPanel(new GridLayout(4, 2, 8, 8));
+        panel.add(new JLabel("From (YYYY-MM-DD):"));
+        panel.add(from);
+        panel.add(new JLabel("To (YYYY-MM-DD):"));
+        panel.add(to);
+        panel.add(new JLabel("Layout:"));
+        panel.add(layout);
+        panel.add(new JLabel("Compression:"));
+        panel.add(compression);
+        if (JOptionPane.showConfirmDialog(this, panel, "Export Attendance Range", JOptionPane.OK_CANCEL_OPTION,
+                JOptionPane.PLAIN_MESSAGE) != JOptionPane.OK_OPTION) return;
+        String f = from.getText().trim(), t = to.getText().trim();
+        if (!isValidDate(f) || !isValidDate(t) || LocalDate.parse(f).isAfter(LocalDate.parse(t))) {
+            JOptionPane.showMessageDialog(this, "Enter From and To as YYYY-MM-DD, From not after To", "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        RangeExporter.Layout l = layout.getSelectedIndex() == 0 ? RangeExporter.Layout.MATRIX : RangeExporter.Layout.PER_DATE;
+        RangeExporter.Compression c = RangeExporter.Compression.values()[compression.getSelectedIndex()];
+        List<Student> snapshot = new ArrayList<>(roster.students());
+        AttendanceStore st0 = store;
+        whenDone(async.submit("Exporting " + f + " to " + t + "...",
+                () -> RangeExporter.export(snapshot, st0, LocalDate.parse(f), LocalDate.parse(t), l, c, new File("."))),
+                out -> JOptionPane.showMessageDialog(this, "Exported to " + out.getName(), "Exported", JOptionPane.INFORMATION_MESSAGE),
+                "Export error: ", "Error");
+    }
+
+    private void generateReports() {
+        List<Student> snapshot = new ArrayList<>(roster.students());
+        AttendanceStore st0 = store;
+        whenDone(async.submit("Generating reports...", () -> {
+            ReportGenerator.generate(snapshot, st0, new File("attendance_report.html"), new File("attendance_report.txt"));
+            return null;
+        }), v -> JOptionPane.showMessageDialog(this, "Reports written to attendance_report.html and attendance_report.txt",
+                "Reports", JOptionPane.INFORMATION_MESSAGE), "Report error: ", "Error");
+    }
+
+    private static class CohortResult {
+        Map<String, int[]> below;
+        SortedMap<String, int[]> days;
+        List<String> absent; // null without a range
+    }
+
+    /**
+     * Students below a threshold, per-day counts and (with a percentage range set) students
+     * absent on every day of the range, from the store's per-date bitsets.
+     */
+    private void showDefaulters() {
+        String input = JOptionPane.showInputDialog(this, "List students below (%):",
+                String.valueOf((int) CohortEngine.DEFAULT_THRESHOLD));
+        if (input == null) return;
+        double threshold;
+        try {
+            threshold = Double.parseDouble(input.trim());
+        } catch (NumberFormatException ex) {
+            JOptionPane.showMessageDialog(this, "Enter a number, e.g. 75", "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        LocalDate from = rangeFrom, to = rangeTo;
+        AttendanceStore st0 = store;
+        AttendanceClient rc = remote;
+        whenDone(async.submit("Finding defaulters...", () -> {
+            CohortResult r = new CohortResult();
+            if (rc != null) {
+                r.below = rc.getDefaulters(threshold, from, to);
+                r.days = rc.getDayCounts(from, to);
+                if (from != null) r.absent = rc.getAbsentEveryDay(from, to);
+            } else {
+                r.below = st0.getDefaulters(threshold, from, to);
+                r.days = st0.getDayCounts(from, to);
+                if (from != null) r.absent = st0.getAbsentEveryDay(from, to);
+            }
+            return r;
+        }), r -> showCohortDialog(r, threshold, from, to), "Query error: ", "Error");
+    }
+
+    private void showCohortDialog(CohortResult r, double threshold, LocalDate from, LocalDate to) {
+        Object[][] below = new Object[r.below.size()][];
+        int i = 0;
+        for (Map.Entry<String, int[]> e : r.below.entrySet()) {
+            Student s = roster.get(e.getKey());
+            int[] c = e.getValue();
+            below[i++] = new Object[]{e.getKey(), s == null ? "" : s.getName(), c[0], c[1],
+                    String.format("%.2f", c[0] * 100.0 / c[1])};
+        }
+        Object[][] days = new Object[r.days.size()][];
+        i = 0;
+        for (Map.Entry<String, int[]> e : r.days.entrySet()) {
+            int[] c = e.getValue();
+            days[i++] = new Object[]{e.getKey(), c[0], c[1], String.format("%.2f", c[1] == 0 ? 0.0 : c[0] * 100.0 / c[1])};
+        }
+        JTabbedPane tabs = new JTabbedPane();
+        tabs.addTab("Below " + formatThreshold(threshold) + "% (" + below.length + ")",
+                readOnlyTable(below, "ID", "Name", "Present", "Total", "Attendance %"));
+        tabs.addTab("Daily Counts", readOnlyTable(days, "Date", "Present", "Recorded", "Present %"));
+        if (r.absent != null) {
+            Object[][] absent = new Object[r.absent.size()][];
+            i = 0;
+            for (String id : r.absent) {
+                Student s = roster.get(id);
+                absent[i++] = new Object[]{id, s == null ? "" : s.getName()};
             }
-            JOptionPane.showMessageDialog(this, "Exported to " + out.getName(), "Exported", JOptionPane.INFORMATION_MESSAGE);
-        } catch (Exception ex) {
-            JOptionPane.showMessageDialog(this, "Export error: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            tabs.addTab("Absent Every Day (" + absent.length + ")", readOnlyTable(absent, "ID", "Name"));
         }
+        JDialog dialog = new JDialog(this, from == null ? "Defaulters (all dates)"
+                : "Defaulters " + from + " .. " + to, false);
+        dialog.add(tabs);
+        dialog.setSize(600, 450);
+        dialog.setLocationRelativeTo(this);
+        dialog.setVisible(true);
+    }
+
+    private static String formatThreshold(double threshold) {
+        return threshold == Math.rint(threshold) ? String.valueOf((long) threshold) : String.valueOf(threshold);
+    }
+
+    private static JScrollPane readOnlyTable(Object[][] rows, String... columns) {
+        JTable table = new JTable(rows, columns);
+        table.setDefaultEditor(Object.class, null);
+        table.setAutoCreateRowSorter(true);
+        return new JScrollPane(table);
+    }
+
+    /**
+     * Bulk import a roster (id,name) or attendance (date,studentId,status) CSV. Parsing runs in
+     * parallel off the EDT; accepted rows are saved in one write and rejected lines go to
+     * import_errors.txt.
+     */
+    private void importFile(boolean rosterFile) {
+        if (!checkWritable()) return;
+        JFileChooser fc = new JFileChooser(new File("."));
+        if (fc.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        File in = fc.getSelectedFile();
+        List<Student> current = new ArrayList<>(roster.students());
+        Set<String> ids = new HashSet<>(roster.ids());
+        AttendanceJournal j = journal;
+        ShardManifest.Shard sh = shard;
+        whenDone(async.submit("Importing " + in.getName() + "...", () -> {
+            BulkImporter.Result r;
+            if (rosterFile) {
+                r = BulkImporter.parseRoster(in, ids);
+                List<Student> merged = new ArrayList<>(current);
+                merged.addAll(r.students);
+                saveStudents(merged);
+            } else {
+                r = BulkImporter.parseAttendance(in, ids);
+                BulkImporter.rejectOutside(r, sh);
+                j.markAll(r.records);
+            }
+            if (!r.rejected.isEmpty()) BulkImporter.writeErrorReport(r, new File("import_errors.txt"));
+            return r;
+        }), r -> {
+            roster.addAll(r.students);
+            refreshStudentTable();
+            loadAttendanceForDate();
+            String msg = "Imported " + (r.students.size() + r.records.size()) + " rows from " + in.getName() + ".";
+            if (!r.rejected.isEmpty()) msg += "\n" + r.rejected.size() + " lines rejected; see import_errors.txt";
+            JOptionPane.showMessageDialog(this, msg, "Import", JOptionPane.INFORMATION_MESSAGE);
+        }, "Import error: ", "Error");
+    }
+
+    private void saveStudents(List<Student> list) throws IOException {
+        if (remote != null) remote.saveStudents(list);
+        else FileStorage.saveStudents(shard.dir, list);
+    }
+
+    private void enableBinaryStorage() {
+        if (remote != null) {
+            JOptionPane.showMessageDialog(this, "Storage format is managed by the server.", "Binary Storage", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        if (!checkWritable()) return;
+        File dir = shard.dir;
+        if (FileStorage.isBinaryEnabled(dir)) {
+            JOptionPane.showMessageDialog(this, "Binary attendance file is already in use.", "Binary Storage", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        whenDone(async.submit("Converting to binary...", () -> {
+            FileStorage.enableBinary(dir);
+            return null;
+        }), v -> JOptionPane.showMessageDialog(this, "attendance.bin created; it is now kept in sync with attendance.csv.", "Binary Storage", JOptionPane.INFORMATION_MESSAGE),
+                "Conversion error: ", "Error");
+    }
+
+    /**
+     * Run onSuccess with the result on the EDT, or show an error dialog; cancelled tasks are ignored.
+     */
+    private <T> void whenDone(CompletableFuture<T> f, Consumer<T> onSuccess, String errPrefix, String errTitle) {
+        f.whenComplete((v, ex) -> {
+            if (ex instanceof CancellationException) return;
+            if (ex != null) {
+                JOptionPane.showMessageDialog(this, errPrefix + ex.getMessage(), errTitle, JOptionPane.ERROR_MESSAGE);
+            } else {
+                onSuccess.accept(v);
+            }
+        });
+    }
+
+    private void showProgress(int pending, String label) {
+        progress.setVisible(pending > 0);
+        lblStatus.setText(label);
+    }
+
+    private void exitApp() {
+        stopWatcher();
+        // let queued journal writes reach the disk first
+        AttendanceJournal j = journal;
+        async.submit("Saving...", () -> {
+            j.close();
+            return null;
+        });
+        async.shutdown(5000);
+        System.exit(0);
+    }
+
+    private static class LoadedData {
+        RosterIndex roster;
+        AttendanceStore store;
+        DataWatcher watcher;
+        WatchHandler handler;
+        String error; // first load failure, null if everything loaded
     }
 }
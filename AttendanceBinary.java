@@ -0,0 +1,213 @@
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * AttendanceBinary.java
+ * Optional compact binary copy of attendance.csv (attendance.bin), stored column by column:
+ * dates as epoch-day ints, student ids dictionary-encoded to ints, status as one byte.
+ * Reads go through a MappedByteBuffer so rows are decoded straight from the mapped file
+ * instead of becoming a String[] each. Rows are sorted by date, so one date's rows are found
+ * with a binary search over the day column. In binary mode FileStorage serves date lookups
+ * and full reads from these columns; csvToBinary and binaryToCsv convert between the formats.
+ *
+ * Layout (big-endian):
+ *   int magic "ATTB", int version,
+ *   long csvSize, long csvLastModified  (attendance.csv this copy was made from),
+ *   int idCount, idCount x (unsigned short length + UTF-8 bytes),
+ *   int rowCount, rowCount x int epochDay, rowCount x int idIndex, rowCount x byte status
+ */
+public class AttendanceBinary {
+
+    private static final int MAGIC = 0x41545442; // "ATTB"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 28;
+    private static final int ROW_BYTES = 9; // epoch day, id index, status
+
+    /**
+     * Column view over a mapped attendance.bin.
+     */
+    public static class Columns {
+        private final MappedByteBuffer buf;
+        private final long csvSize, csvLastModified;
+        private final String[] ids;
+        private final int rows;
+        private final int daysOffset;
+        private final int idxOffset;
+        private final int statusOffset;
+
+        Columns(MappedByteBuffer buf, long csvSize, long csvLastModified, String[] ids, int rows, int daysOffset) {
+            this.buf = buf;
+            this.csvSize = csvSize;
+            this.csvLastModified = csvLastModified;
+            this.ids = ids;
+            this.rows = rows;
+            this.daysOffset = daysOffset;
+            this.idxOffset = daysOffset + 4 * rows;
+            this.statusOffset = idxOffset + 4 * rows;
+        }
+
+        /**
+         * Whether these columns were made from attendance.csv as it is now.
+         */
+        public boolean matches(File csv) {
+            return csv.length() == csvSize && csv.lastModified() == csvLastModified;
+        }
+
+        public int size() { return rows; }
+
+        /**
+         * The first row of the given day, or of the first day after it.
+         */
+        public int firstRow(int epochDay) {
+            int lo = 0, hi = rows;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (epochDay(mid) < epochDay) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+
+        public int epochDay(int row) { return buf.getInt(daysOffset + 4 * row); }
+
+        public String studentId(int row) { return ids[buf.getInt(idxOffset + 4 * row)]; }
+
+        public char status(int row) { return (char) buf.get(statusOffset + row); }
+    }
+
+    /**
+     * Write the store's records, already interned to student ints and epoch days, in the
+     * same layout. Only students with at least one record get a dictionary entry.
+     */
+    public static void write(AttendanceStore.Days days, File csv, File bin) throws IOException {
+        int students = days.studentCount();
+        int[] dict = new int[students];
+        Arrays.fill(dict, -1);
+        List<String> ids = new ArrayList<>();
+        int rows = 0;
+        for (int d = 0; d < days.size(); d++) {
+            byte[] statuses = days.statuses(d);
+            int n = Math.min(statuses.length, students);
+            for (int s = 0; s < n; s++) {
+                if (statuses[s] == 0) continue;
+                if (dict[s] < 0) {
+                    dict[s] = ids.size();
+                    ids.add(days.studentId(s));
+                }
+                rows++;
+            }
+        }
+        File tmp = new File(bin.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(csv.length());
+            out.writeLong(csv.lastModified());
+            out.writeInt(ids.size());
+            for (String id : ids) {
+                byte[] b = id.getBytes(StandardCharsets.UTF_8);
+                out.writeShort(b.length);
+                out.write(b);
+            }
+            out.writeInt(rows);
+            // three passes over the status bytes, one per column
+            for (int column = 0; column < 3; column++) {
+                for (int d = 0; d < days.size(); d++) {
+                    byte[] statuses = days.statuses(d);
+                    int n = Math.min(statuses.length, students);
+                    for (int s = 0; s < n; s++) {
+                        if (statuses[s] == 0) continue;
+                        if (column == 0) out.writeInt(days.epochDay(d));
+                        else if (column == 1) out.writeInt(dict[s]);
+                        else out.writeByte(statuses[s]);
+                    }
+                }
+            }
+        }
+        Files.move(tmp.toPath(), bin.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Map a binary file. Returns null if it is missing, not ours, truncated or otherwise
+     * inconsistent, or no longer matches the csv (pass csv == null to skip that check).
+     */
+    public static Columns read(File bin, File csv) throws IOException {
+        if (!bin.exists()) return null;
+        MappedByteBuffer buf;
+        try (FileChannel ch = FileChannel.open(bin.toPath(), StandardOpenOption.READ)) {
+            buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+        if (buf.remaining() < HEADER_BYTES || buf.getInt() != MAGIC || buf.getInt() != VERSION) return null;
+        long size = buf.getLong(), modified = buf.getLong();
+        if (csv != null && (size != csv.length() || modified != csv.lastModified())) return null;
+        // every length is checked against what is left before it is used
+        int idCount = buf.getInt();
+        if (idCount < 0 || idCount > buf.remaining() / 2) return null;
+        String[] ids = new String[idCount];
+        for (int i = 0; i < ids.length; i++) {
+            if (buf.remaining() < 2) return null;
+            int len = buf.getShort() & 0xFFFF;
+            if (buf.remaining() < len) return null;
+            byte[] b = new byte[len];
+            buf.get(b);
+            ids[i] = new String(b, StandardCharsets.UTF_8);
+        }
+        if (buf.remaining() < 4) return null;
+        int rows = buf.getInt();
+        if (rows < 0 || (long) rows * ROW_BYTES != buf.remaining()) return null;
+        Columns cols = new Columns(buf, size, modified, ids, rows, buf.position());
+        for (int i = 0; i < rows; i++) {
+            int id = buf.getInt(cols.idxOffset + 4 * i);
+            if (id < 0 || id >= idCount) return null;
+            // firstRow's binary search needs the days in order
+            if (i > 0 && cols.epochDay(i) < cols.epochDay(i - 1)) return null;
+        }
+        return cols;
+    }
+
+    /**
+     * CSV -> binary: build attendance.bin from an attendance.csv. Rows are read with
+     * CsvScanner, so a malformed row is skipped as it is on every other csv read.
+     */
+    public static void csvToBinary(File csv, File bin) throws IOException {
+        AttendanceStore store = new AttendanceStore();
+        CsvScanner.Interner ids = new CsvScanner.Interner();
+        Map<Integer, String> dates = new HashMap<>();
+        try (InputStream in = new FileInputStream(csv)) {
+            CsvScanner.scanAttendance(in, (day, b, idStart, idLen, status) ->
+                    store.mark(dates.computeIfAbsent(day, d -> LocalDate.ofEpochDay(d).toString()),
+                            ids.intern(b, idStart, idLen), CsvScanner.statusString(status)));
+        }
+        write(store.snapshot(), csv, bin);
+    }
+
+    /**
+     * Binary -> CSV: write an attendance.csv from attendance.bin, grouped by date like every
+     * other csv write (used to restore a lost attendance.csv).
+     */
+    public static void binaryToCsv(File bin, File csv) throws IOException {
+        // no stamp check here; the target csv is being (re)created
+        Columns cols = read(bin, null);
+        if (cols == null) throw new IOException("Not a valid attendance binary file: " + bin);
+        File tmp = new File(csv.getPath() + ".tmp");
+        try (PrintWriter pw = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8)))) {
+            int lastDay = Integer.MIN_VALUE;
+            String date = null;
+            for (int i = 0; i < cols.size(); i++) {
+                if (cols.epochDay(i) != lastDay) {
+                    lastDay = cols.epochDay(i);
+                    date = LocalDate.ofEpochDay(lastDay).toString();
+                }
+                pw.println(date + "," + cols.studentId(i) + "," + cols.status(i));
+            }
+        }
+        Files.move(tmp.toPath(), csv.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,398 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.Future;
+
+/**
+ * AttendanceCli.java
+ * Headless batch commands for nightly jobs, run from Main without starting Swing:
+ *
+ *   java Main import roster|attendance FILE      bulk import, rejected lines to import_errors.txt
+ *   java Main mark-from-file FILE [--date D] [--status P|A]
+ *                                                 mark every student id listed in FILE (one per line)
+ *   java Main recompute                           rebuild attendance.csv, .idx and .snap from scratch
+ *   java Main report [--html F] [--txt F]         write the HTML and text reports
+ *   java Main compact                             fold the journal into attendance.csv
+ *   java Main export-range --from D --to D [--layout matrix|per-date] [--compress none|gzip|zip]
+ *   java Main cohort days|defaulters|absent [--from D] [--to D] [--threshold 75]
+ *                                                 per-day counts, students below the threshold,
+ *                                                 or students absent on every date of the range
+ *   java Main shard section|term FILE             split the data into shards (see ShardManifest):
+ *                                                 FILE lists studentId,section or name,from,to lines
+ *   java Main shard list                          show the shards
+ *
+ * Each command works on the data files in the current directory, prints what it did with
+ * its throughput, and returns an exit code: 0 done, 1 failed, 2 bad usage, 3 done but some
+ * input lines were rejected.
+ *
+ * When the data is sharded, --shard NAME picks one shard. Without it, report, compact and
+ * recompute work on every shard (loaded in parallel) and mark-from-file sends each student
+ * to the shard that holds them; the other commands need --shard.
+ */
+public class AttendanceCli {
+
+    public static final int OK = 0;
+    public static final int FAILED = 1;
+    public static final int USAGE = 2;
+    public static final int REJECTED = 3;
+
+    private static final List<String> COMMANDS =
+            Arrays.asList("import", "mark-from-file", "recompute", "report", "compact", "export-range", "cohort", "shard");
+
+    public static boolean isCommand(String arg) {
+        return COMMANDS.contains(arg);
+    }
+
+    public static int run(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        long start = System.nanoTime();
+        try {
+            Map<String, String> opts = new HashMap<>();
+            List<String> params = new ArrayList<>();
+            for (int i = 1; i < args.length; i++) {
+                if (args[i].startsWith("--")) {
+                    if (i + 1 >= args.length) return usage("missing value for " + args[i]);
+                    opts.put(args[i].substring(2), args[++i]);
+                } else {
+                    params.add(args[i]);
+                }
+            }
+            switch (args[0]) {
+                case "import": return importFile(params, opts, start);
+                case "mark-from-file": return markFromFile(params, opts, start);
+                case "recompute": return recompute(opts, start);
+                case "report": return report(opts, start);
+                case "compact": return compact(opts, start);
+                case "export-range": return exportRange(opts, start);
+                case "cohort": return cohort(params, opts, start);
+                case "shard": return shard(params, start);
+                default: return usage("unknown command " + args[0]);
+            }
+        } catch (IllegalArgumentException ex) {
+            return usage(ex.getMessage());
+        } catch (Exception ex) {
+            System.err.println(args[0] + " failed: " + ex);
+            return FAILED;
+        }
+    }
+
+    private static int importFile(List<String> params, Map<String, String> opts, long start) throws Exception {
+        if (params.size() != 2 || !(params.get(0).equals("roster") || params.get(0).equals("attendance"))) {
+            return usage("import roster|attendance FILE [--shard NAME]");
+        }
+        File in = existing(params.get(1));
+        ShardManifest.Shard shard = shard(opts);
+        File dir = shard.dir;
+        List<Student> students = FileStorage.loadStudents(dir);
+        Set<String> ids = new HashSet<>();
+        for (Student s : students) ids.add(s.getId());
+        BulkImporter.Result r;
+        if (params.get(0).equals("roster")) {
+            r = BulkImporter.parseRoster(in, ids);
+            students.addAll(r.students);
+            FileStorage.saveStudents(dir, students);
+        } else {
+            r = BulkImporter.parseAttendance(in, ids);
+            BulkImporter.rejectOutside(r, shard);
+            AttendanceStore store = AttendanceStore.load(dir);
+            AttendanceJournal journal = new AttendanceJournal(store);
+            journal.markAll(r.records);
+            journal.compactAsync().get();
+            journal.close();
+        }
+        int accepted = r.students.size() + r.records.size();
+        done("import " + params.get(0), r.lines, in.length(), start,
+                accepted + " accepted, " + r.rejected.size() + " rejected");
+        if (r.rejected.isEmpty()) return OK;
+        BulkImporter.writeErrorReport(r, new File("import_errors.txt"));
+        System.out.println("rejected lines written to import_errors.txt");
+        return REJECTED;
+    }
+
+    private static int markFromFile(List<String> params, Map<String, String> opts, long start) throws Exception {
+        if (params.size() != 1) return usage("mark-from-file FILE [--date YYYY-MM-DD] [--status P|A]");
+        File in = existing(params.get(0));
+        String date = date(opts.getOrDefault("date", LocalDate.now().toString()));
+        String status = opts.getOrDefault("status", "P").trim().toUpperCase();
+        if (!status.equals("P") && !status.equals("A")) throw new IllegalArgumentException("--status must be P or A");
+        // each id goes to the shard that holds it for this date; only those shards are loaded
+        Map<String, List<ShardManifest.Shard>> index = shards(opts).studentIndex();
+        Map<ShardManifest.Shard, List<String>> byShard = new LinkedHashMap<>();
+        List<String> unknown = new ArrayList<>();
+        int lines = 0, marked = 0;
+        for (String line : Files.readAllLines(in.toPath(), StandardCharsets.UTF_8)) {
+            lines++;
+            String id = line.trim();
+            if (id.isEmpty()) continue;
+            ShardManifest.Shard shard = ShardManifest.route(index, date, id);
+            if (shard != null) {
+                byShard.computeIfAbsent(shard, k -> new ArrayList<>()).add(id);
+                marked++;
+            } else if (index.containsKey(id)) {
+                unknown.add("line " + lines + ": no shard holds " + date + " for " + id);
+            } else {
+                unknown.add("line " + lines + ": unknown student id: " + id);
+            }
+        }
+        for (Map.Entry<ShardManifest.Shard, List<String>> e : byShard.entrySet()) {
+            AttendanceStore store = AttendanceStore.load(e.getKey().dir);
+            AttendanceJournal journal = new AttendanceJournal(store);
+            journal.mark(date, e.getValue(), status);
+            journal.close();
+        }
+        done("mark-from-file", lines, in.length(), start, marked + " marked " + status + " for " + date
+                + (byShard.size() > 1 ? " in " + byShard.size() + " shards" : "") + ", " + unknown.size() + " unknown");
+        if (unknown.isEmpty()) return OK;
+        for (String u : unknown) System.err.println(u);
+        return REJECTED;
+    }
+
+    private static int recompute(Map<String, String> opts, long start) throws Exception {
+        // with attendance.idx and attendance.snap gone, loading rewrites attendance.csv grouped
+        // by date with a fresh index, snapshot and (in binary mode) attendance.bin
+        ShardManifest shards = shards(opts);
+        for (ShardManifest.Shard s : shards.shards()) FileStorage.deleteDerivedFiles(s.dir);
+        List<ShardManifest.Loaded> loaded = shards.loadAll();
+        compactAll(loaded);
+        long bytes = 0, dates = 0, students = 0;
+        for (ShardManifest.Loaded l : loaded) {
+            AggregateSnapshot snap = l.store.aggregates();
+            bytes += new File(l.shard.dir, FileStorage.ATTENDANCE_FILE).length();
+            dates += snap.dates.size();
+            students += snap.counts.size();
+        }
+        done("recompute", rows(loaded), bytes, start, dates + " dates, " + students + " students" + inShards(loaded));
+        return OK;
+    }
+
+    private static int report(Map<String, String> opts, long start) throws Exception {
+        File html = new File(opts.getOrDefault("html", "attendance_report.html"));
+        File txt = new File(opts.getOrDefault("txt", "attendance_report.txt"));
+        List<ShardManifest.Loaded> loaded = shards(opts).loadAll();
+        List<Student> students = ShardManifest.students(loaded);
+        List<AttendanceStore> stores = new ArrayList<>();
+        for (ShardManifest.Loaded l : loaded) stores.add(l.store);
+        ReportGenerator.generate(students, stores, html, txt);
+        done("report", rows(loaded), html.length() + txt.length(), start,
+                students.size() + " students" + inShards(loaded) + ", wrote " + html + " and " + txt);
+        return OK;
+    }
+
+    private static int compact(Map<String, String> opts, long start) throws Exception {
+        ShardManifest shards = shards(opts);
+        long journalBytes = 0;
+        for (ShardManifest.Shard s : shards.shards()) journalBytes += FileStorage.journalSize(s.dir);
+        List<ShardManifest.Loaded> loaded = shards.loadAll();
+        compactAll(loaded);
+        done("compact", rows(loaded), journalBytes, start, journalBytes == 0
+                ? "journal empty, nothing to fold" : "journal folded into attendance.csv" + inShards(loaded));
+        return OK;
+    }
+
+    /**
+     * Fold every shard's journal into its attendance.csv, the shards side by side.
+     */
+    private static void compactAll(List<ShardManifest.Loaded> loaded) throws Exception {
+        List<AttendanceJournal> journals = new ArrayList<>();
+        List<Future<?>> pending = new ArrayList<>();
+        for (ShardManifest.Loaded l : loaded) {
+            AttendanceJournal journal = new AttendanceJournal(l.store);
+            journals.add(journal);
+            pending.add(journal.compactAsync());
+        }
+        for (Future<?> f : pending) f.get();
+        for (AttendanceJournal journal : journals) journal.close();
+    }
+
+    private static int exportRange(Map<String, String> opts, long start) throws Exception {
+        if (!opts.containsKey("from") || !opts.containsKey("to")) {
+            return usage("export-range --from D --to D [--layout matrix|per-date] [--compress none|gzip|zip]");
+        }
+        LocalDate from = LocalDate.parse(date(opts.get("from")));
+        LocalDate to = LocalDate.parse(date(opts.get("to")));
+        RangeExporter.Layout layout = opts.getOrDefault("layout", "matrix").equals("per-date")
+                ? RangeExporter.Layout.PER_DATE : RangeExporter.Layout.MATRIX;
+        RangeExporter.Compression compression =
+                RangeExporter.Compression.valueOf(opts.getOrDefault("compress", "none").toUpperCase());
+        File dir = dir(opts);
+        List<Student> students = FileStorage.loadStudents(dir);
+        AttendanceStore store = AttendanceStore.load(dir);
+        File out = RangeExporter.export(students, store, from, to, layout, compression, new File("."));
+        long bytes = out.length();
+        File[] files = out.listFiles();
+        if (files != null) for (File f : files) bytes += f.length();
+        long days = 0;
+        for (String d : store.getDates()) {
+            if (d.compareTo(from.toString()) >= 0 && d.compareTo(to.toString()) <= 0) days++;
+        }
+        done("export-range", days * students.size(), bytes, start, "wrote " + out);
+        return OK;
+    }
+
+    private static int cohort(List<String> params, Map<String, String> opts, long start) throws Exception {
+        if (params.size() != 1) return usage("cohort days|defaulters|absent [--from D] [--to D] [--threshold 75]");
+        LocalDate from = opts.containsKey("from") ? LocalDate.parse(date(opts.get("from"))) : null;
+        LocalDate to = opts.containsKey("to") ? LocalDate.parse(date(opts.get("to"))) : null;
+        AttendanceStore store = AttendanceStore.load(dir(opts));
+        int lines = 0;
+        switch (params.get(0)) {
+            case "days":
+                System.out.println("Date,Present,Recorded");
+                for (Map.Entry<String, int[]> e : store.getDayCounts(from, to).entrySet()) {
+                    System.out.println(e.getKey() + "," + e.getValue()[0] + "," + e.getValue()[1]);
+                    lines++;
+                }
+                break;
+            case "defaulters":
+                double threshold;
+                try {
+                    threshold = Double.parseDouble(opts.getOrDefault("threshold", String.valueOf(CohortEngine.DEFAULT_THRESHOLD)));
+                } catch (NumberFormatException ex) {
+                    throw new IllegalArgumentException("--threshold must be a number");
+                }
+                System.out.println("StudentID,Present,Total,Percentage");
+                for (Map.Entry<String, int[]> e : store.getDefaulters(threshold, from, to).entrySet()) {
+                    int[] c = e.getValue();
+                    System.out.printf("%s,%d,%d,%.2f%n", e.getKey(), c[0], c[1], c[0] * 100.0 / c[1]);
+                    lines++;
+                }
+                break;
+            case "absent":
+                if (from == null || to == null) throw new IllegalArgumentException("cohort absent --from D --to D");
+                System.out.println("StudentID");
+                for (String id : store.getAbsentEveryDay(from, to)) {
+                    System.out.println(id);
+                    lines++;
+                }
+                break;
+            default:
+                return usage("cohort days|defaulters|absent [--from D] [--to D] [--threshold 75]");
+        }
+        done("cohort " + params.get(0), rows(store.aggregates()), 0, start, lines + " lines");
+        return OK;
+    }
+
+    private static int shard(List<String> params, long start) throws Exception {
+        File base = FileStorage.defaultDir();
+        if (params.size() == 1 && params.get(0).equals("list")) {
+            ShardManifest manifest = ShardManifest.read(base);
+            if (!manifest.isSharded()) System.out.println("not sharded");
+            else for (ShardManifest.Shard s : manifest.shards()) System.out.println(s + "\t" + s.dir);
+            return OK;
+        }
+        if (params.size() != 2 || !(params.get(0).equals("section") || params.get(0).equals("term"))) {
+            return usage("shard section|term FILE, or shard list");
+        }
+        File in = existing(params.get(1));
+        List<String> lines = Files.readAllLines(in.toPath(), StandardCharsets.UTF_8);
+        ShardManifest manifest;
+        if (params.get(0).equals("section")) {
+            Map<String, String> sectionOf = new HashMap<>();
+            for (int i = 0; i < lines.size(); i++) {
+                String[] p = lines.get(i).split(",", 2);
+                if (lines.get(i).trim().isEmpty()) continue;
+                if (p.length != 2 || !ShardManifest.isValidName(p[1].trim())) {
+                    throw new IllegalArgumentException(in + " line " + (i + 1) + ": expected studentId,section"
+                            + " (section: letters, digits, '.', '_', '-')");
+                }
+                sectionOf.put(p[0].trim(), p[1].trim());
+            }
+            manifest = ShardManifest.splitBySection(base, sectionOf);
+        } else {
+            List<ShardManifest.Shard> terms = new ArrayList<>();
+            for (int i = 0; i < lines.size(); i++) {
+                if (lines.get(i).trim().isEmpty()) continue;
+                String[] p = lines.get(i).split(",");
+                if (p.length != 3 || !ShardManifest.isValidName(p[0].trim())) {
+                    throw new IllegalArgumentException(in + " line " + (i + 1) + ": expected name,from,to");
+                }
+                LocalDate from = LocalDate.parse(date(p[1])), to = LocalDate.parse(date(p[2]));
+                if (from.isAfter(to)) throw new IllegalArgumentException(in + " line " + (i + 1) + ": from is after to");
+                for (ShardManifest.Shard t : terms) {
+                    if (!from.isAfter(t.to) && !to.isBefore(t.from)) {
+                        throw new IllegalArgumentException(in + " line " + (i + 1) + ": overlaps term " + t.name);
+                    }
+                }
+                terms.add(new ShardManifest.Shard(p[0].trim(), null, from, to));
+            }
+            manifest = ShardManifest.splitByTerm(base, terms);
+        }
+        long rows = 0, bytes = 0;
+        for (ShardManifest.Shard s : manifest.shards()) {
+            AggregateSnapshot snap = FileStorage.loadAggregates(s.dir);
+            if (snap != null) rows += rows(snap);
+            bytes += new File(s.dir, FileStorage.ATTENDANCE_FILE).length();
+        }
+        done("shard " + params.get(0), rows, bytes, start, manifest.shards().size() + " shards written under "
+                + ShardManifest.SHARDS_DIR + "/, listed in " + ShardManifest.MANIFEST_FILE
+                + "; the unsharded files were left as they were");
+        return OK;
+    }
+
+    /**
+     * The selected shards: the --shard one, else every shard (or the working directory
+     * when the data is not sharded).
+     */
+    private static ShardManifest shards(Map<String, String> opts) throws IOException {
+        return ShardManifest.read(FileStorage.defaultDir()).select(opts.get("shard"));
+    }
+
+    /**
+     * The one shard a command works on (the working directory when not sharded).
+     */
+    private static ShardManifest.Shard shard(Map<String, String> opts) throws IOException {
+        ShardManifest shards = shards(opts);
+        if (shards.shards().size() != 1) throw new IllegalArgumentException("the data is sharded; pass --shard NAME");
+        return shards.shards().get(0);
+    }
+
+    private static File dir(Map<String, String> opts) throws IOException {
+        return shard(opts).dir;
+    }
+
+    private static String inShards(List<ShardManifest.Loaded> loaded) {
+        return loaded.size() > 1 ? " in " + loaded.size() + " shards" : "";
+    }
+
+    private static long rows(List<ShardManifest.Loaded> loaded) {
+        long n = 0;
+        for (ShardManifest.Loaded l : loaded) n += rows(l.store.aggregates());
+        return n;
+    }
+
+    private static long rows(AggregateSnapshot snap) {
+        long n = 0;
+        for (int[] c : snap.counts.values()) n += c[1];
+        return n;
+    }
+
+    private static void done(String what, long rows, long bytes, long start, String detail) {
+        double secs = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+        System.err.printf("%s: %s%n", what, detail);
+        System.err.printf("%s: %d rows, %.1f MB in %.2f s (%.0f rows/s, %.1f MB/s)%n",
+                what, rows, bytes / 1e6, secs, rows / secs, bytes / 1e6 / secs);
+    }
+
+    private static int usage(String msg) {
+        System.err.println("usage: " + msg);
+        return USAGE;
+    }
+
+    private static File existing(String path) {
+        File f = new File(path);
+        if (!f.isFile()) throw new IllegalArgumentException("no such file: " + path);
+        return f;
+    }
+
+    private static String date(String d) {
+        try {
+            LocalDate.parse(d.trim());
+            return d.trim();
+        } catch (DateTimeParseException ex) {
+            throw new IllegalArgumentException("date must be YYYY-MM-DD: " + d);
+        }
+    }
+}
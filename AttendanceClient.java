@@ -0,0 +1,212 @@
+import java.io.*;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+/**
+ * AttendanceClient.java
+ * Lets the Swing app work against an AttendanceServer (java Main --connect http://host:port)
+ * instead of the local files. The app keeps a local AttendanceStore as a mirror for
+ * percentages, exports and reports; writes go to the server through RemoteJournal, and
+ * the attendance of a date is always fetched fresh so marks from other terminals show up.
+ */
+public class AttendanceClient {
+
+    private final String base;
+    private final HttpClient http = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+
+    public AttendanceClient(String baseUrl) {
+        this.base = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+    }
+
+    public String getBaseUrl() {
+        return base;
+    }
+
+    public List<Student> loadStudents() throws IOException {
+        List<Student> list = new ArrayList<>();
+        for (String line : get("/students")) {
+            String[] p = line.split(",", 2);
+            if (p.length == 2) list.add(new Student(p[0], p[1]));
+        }
+        return list;
+    }
+
+    public void saveStudents(List<Student> students) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (Student s : students) sb.append(s.getId()).append(',').append(s.getName()).append('\n');
+        post("/students", sb.toString());
+    }
+
+    /**
+     * Build a local mirror of the server's attendance.
+     */
+    public AttendanceStore loadStore() throws IOException {
+        List<String[]> records = new ArrayList<>();
+        for (String line : get("/records")) {
+            String[] p = line.split(",", 3);
+            if (p.length == 3) records.add(p);
+        }
+        AttendanceStore store = new AttendanceStore();
+        store.addAll(records);
+        return store;
+    }
+
+    public Map<String, String> getForDate(String date) throws IOException {
+        Map<String, String> map = new HashMap<>();
+        for (String line : get("/attendance?date=" + enc(date))) {
+            String[] p = line.split(",", 2);
+            if (p.length == 2) map.put(p[0], p[1]);
+        }
+        return map;
+    }
+
+    public SortedMap<String, int[]> getDayCounts(LocalDate from, LocalDate to) throws IOException {
+        SortedMap<String, int[]> out = new TreeMap<>();
+        for (String[] p : counts(get("/daycounts" + range(from, to, '?')))) {
+            out.put(p[0], new int[]{Integer.parseInt(p[1]), Integer.parseInt(p[2])});
+        }
+        return out;
+    }
+
+    public Map<String, int[]> getDefaulters(double threshold, LocalDate from, LocalDate to) throws IOException {
+        Map<String, int[]> out = new LinkedHashMap<>();
+        for (String[] p : counts(get("/defaulters?threshold=" + threshold + range(from, to, '&')))) {
+            out.put(p[0], new int[]{Integer.parseInt(p[1]), Integer.parseInt(p[2])});
+        }
+        return out;
+    }
+
+    public List<String> getAbsentEveryDay(LocalDate from, LocalDate to) throws IOException {
+        List<String> out = new ArrayList<>();
+        for (String line : get("/absent?from=" + from + "&to=" + to)) {
+            if (!line.isEmpty()) out.add(line);
+        }
+        return out;
+    }
+
+    private static String range(LocalDate from, LocalDate to, char sep) {
+        StringBuilder sb = new StringBuilder();
+        if (from != null) sb.append(sep).append("from=").append(from);
+        if (to != null) sb.append(from != null ? '&' : sep).append("to=").append(to);
+        return sb.toString();
+    }
+
+    private static List<String[]> counts(List<String> lines) {
+        List<String[]> out = new ArrayList<>();
+        for (String line : lines) {
+            String[] p = line.split(",");
+            if (p.length == 3) out.add(p);
+        }
+        return out;
+    }
+
+    public void mark(String date, Collection<String> ids, String status) throws IOException {
+        post("/mark?date=" + enc(date) + "&status=" + enc(status), String.join("\n", ids));
+    }
+
+    public void markAll(List<String[]> records) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (String[] r : records) sb.append(r[0]).append(',').append(r[1]).append(',').append(r[2]).append('\n');
+        post("/marks", sb.toString());
+    }
+
+    public void removeStudents(Collection<String> ids) throws IOException {
+        post("/remove", String.join("\n", ids));
+    }
+
+    public void flush() throws IOException {
+        post("/flush", "");
+    }
+
+    /**
+     * A journal whose writes go to the server; the local mirror is updated as well so the
+     * student table reflects this terminal's marks without a reload.
+     */
+    public AttendanceJournal journal(AttendanceStore mirror) {
+        return new RemoteJournal(mirror);
+    }
+
+    private class RemoteJournal extends AttendanceJournal {
+        private final AttendanceStore mirror;
+
+        RemoteJournal(AttendanceStore mirror) {
+            super(mirror, Durability.NONE);
+            this.mirror = mirror;
+        }
+
+        @Override
+        public void mark(String date, Collection<String> studentIds, String status) throws IOException {
+            AttendanceClient.this.mark(date, studentIds, status);
+            for (String id : studentIds) mirror.mark(date, id, status);
+        }
+
+        @Override
+        public void markAll(List<String[]> records) throws IOException {
+            AttendanceClient.this.markAll(records);
+            mirror.addAll(records);
+        }
+
+        @Override
+        public void removeStudents(Collection<String> studentIds) throws IOException {
+            AttendanceClient.this.removeStudents(studentIds);
+            mirror.removeStudents(studentIds);
+        }
+
+        @Override
+        public void flush() {
+            // nothing is buffered on this side; close() still stops the base class's executors
+        }
+
+        @Override
+        public Future<?> compactAsync() throws IOException {
+            AttendanceClient.this.flush();
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    private List<String> get(String path) throws IOException {
+        return send(HttpRequest.newBuilder(URI.create(base + path)).GET());
+    }
+
+    private List<String> post(String path, String body) throws IOException {
+        return send(HttpRequest.newBuilder(URI.create(base + path))
+                .POST(HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8)));
+    }
+
+    private List<String> send(HttpRequest.Builder req) throws IOException {
+        HttpResponse<InputStream> resp;
+        try {
+            resp = http.send(req.timeout(Duration.ofSeconds(30)).build(), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("request interrupted");
+        }
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(resp.body(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (!line.isEmpty()) lines.add(line);
+            }
+        }
+        if (resp.statusCode() != 200) {
+            throw new IOException("Server returned " + resp.statusCode() + ": " + String.join(" ", lines));
+        }
+        return lines;
+    }
+
+    private static String enc(String s) {
+        return URLEncoder.encode(s, StandardCharsets.UTF_8);
+    }
+}
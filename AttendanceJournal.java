@@ -0,0 +1,206 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * AttendanceJournal.java
+ * Journal mode for attendance writes. Marks and deletes are applied to the in-memory
+ * store and appended to attendance.journal as small records (latest record for a
+ * date+student wins on replay), so a write costs only the rows that changed.
+ * Removing students writes one tombstone record per student, however long their history.
+ * Once the journal grows past a threshold it is folded into the attendance.csv
+ * snapshot by a background compactor.
+ *
+ * Writes are grouped: records wait in memory and are appended as one batch after a short
+ * idle window, once FLUSH_MAX_PENDING records are waiting, or on flush() (Save All, exit).
+ * How hard each batch is pushed to disk is set by the durability policy, read from the
+ * attendance.durability system property (none | batch | change, default batch).
+ *
+ * Writes hold the journal's lock from the store update through the append, so concurrent
+ * writers reach the store and the journal in the same order and a restart replays what
+ * memory holds.
+ */
+public class AttendanceJournal {
+
+    public static final long COMPACT_THRESHOLD_BYTES = 256 * 1024;
+    public static final long FLUSH_IDLE_MS = 300;
+    public static final int FLUSH_MAX_PENDING = 500;
+
+    public enum Durability {
+        NONE,   // write batches, never fsync; the OS decides when they reach the disk
+        BATCH,  // fsync once per flushed batch
+        CHANGE; // flush and fsync on every change
+
+        public static Durability fromProperty() {
+            String v = System.getProperty("attendance.durability", "batch");
+            try {
+                return valueOf(v.trim().toUpperCase());
+            } catch (IllegalArgumentException ex) {
+                return BATCH;
+            }
+        }
+    }
+
+    private final AttendanceStore store;
+    private final Durability durability;
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "attendance-compactor");
+        t.setDaemon(true);
+        return t;
+    });
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "journal-flusher");
+        t.setDaemon(true);
+        return t;
+    });
+    private final List<String[]> unflushed = new ArrayList<>();
+    private ScheduledFuture<?> idleFlush;
+    private Future<?> pending;
+
+    public AttendanceJournal(AttendanceStore store) {
+        this(store, Durability.fromProperty());
+    }
+
+    public AttendanceJournal(AttendanceStore store, Durability durability) {
+        this.store = store;
+        this.durability = durability;
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * Mark the given students with a status on a date.
+     */
+    public synchronized void mark(String date, Collection<String> studentIds, String status) throws IOException {
+        List<String[]> recs = new ArrayList<>();
+        for (String id : studentIds) {
+            store.mark(date, id, status);
+            recs.add(new String[]{"M", date, id, status});
+        }
+        append(recs);
+    }
+
+    /**
+     * Apply many {date, studentId, status} records (e.g. a bulk import) with a single append.
+     */
+    public synchronized void markAll(List<String[]> records) throws IOException {
+        List<String[]> recs = new ArrayList<>(records.size());
+        for (String[] r : records) {
+            store.mark(r[0], r[1], r[2]);
+            recs.add(new String[]{"M", r[0], r[1], r[2]});
+        }
+        append(recs);
+        flush();
+    }
+
+    /**
+     * Remove every attendance record of a student.
+     */
+    public void removeStudent(String studentId) throws IOException {
+        removeStudents(Collections.singletonList(studentId));
+    }
+
+    /**
+     * Remove every attendance record of the given students as one journal write of
+     * tombstones; the rows themselves are dropped from attendance.csv at the next compaction.
+     */
+    public synchronized void removeStudents(Collection<String> studentIds) throws IOException {
+        List<String[]> recs = new ArrayList<>();
+        store.removeStudents(studentIds);
+        for (String id : studentIds) recs.add(new String[]{"T", id});
+        append(recs);
+        flush();
+    }
+
+    /**
+     * Apply journal records another writer appended to the files (see DataWatcher) to the
+     * store without journaling them again. A record for a date+student that still has a
+     * change of ours waiting to be flushed is skipped, since ours will be written after it;
+     * after a tombstone our waiting marks for the student are applied again.
+     * Returns the records that were applied.
+     */
+    public synchronized List<String[]> applyExternal(List<String[]> records) {
+        Map<Long, String[]> waiting = new HashMap<>();
+        for (String[] r : unflushed) {
+            if (r[0].equals("M")) waiting.put(store.recordKey(r[1], r[2]), r);
+        }
+        List<String[]> applied = new ArrayList<>();
+        for (String[] r : records) {
+            if (r[0].equals("T")) {
+                store.apply(r);
+                for (String[] w : waiting.values()) {
+                    if (w[2].equals(r[1])) store.mark(w[1], w[2], w[3]);
+                }
+            } else if (waiting.containsKey(store.recordKey(r[1], r[2]))) {
+                continue;
+            } else {
+                store.apply(r);
+            }
+            applied.add(r);
+        }
+        return applied;
+    }
+
+    private synchronized void append(List<String[]> recs) throws IOException {
+        unflushed.addAll(recs);
+        if (durability == Durability.CHANGE || unflushed.size() >= FLUSH_MAX_PENDING) {
+            flush();
+            return;
+        }
+        // (re)start the idle window
+        if (idleFlush != null) idleFlush.cancel(false);
+        idleFlush = flusher.schedule(this::flushQuietly, FLUSH_IDLE_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Append every waiting record to attendance.journal now as one batch.
+     */
+    public synchronized void flush() throws IOException {
+        if (idleFlush != null) {
+            idleFlush.cancel(false);
+            idleFlush = null;
+        }
+        if (unflushed.isEmpty()) return;
+        // records stay queued if the write fails, so the next flush retries them
+        FileStorage.appendJournal(store.getDir(), unflushed, durability != Durability.NONE);
+        unflushed.clear();
+        if (FileStorage.journalSize(store.getDir()) >= COMPACT_THRESHOLD_BYTES) compactAsync();
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException ex) {
+            // records stay queued; the next flush retries them
+            Metrics.error("journal.flush", ex);
+        }
+    }
+
+    /**
+     * Flush and stop the background threads; used on exit and when the data is reloaded.
+     */
+    public synchronized void close() throws IOException {
+        flush();
+        flusher.shutdown();
+        compactor.shutdown();
+    }
+
+    /**
+     * Start folding the journal into attendance.csv in the background (FileStorage.compactJournal).
+     * The live journal is rotated first so appends can continue while the snapshot is written;
+     * if the app stops half way, the rotated journal is replayed on the next load.
+     */
+    public synchronized Future<?> compactAsync() throws IOException {
+        if (pending != null && !pending.isDone()) return pending;
+        flush();
+        File dir = store.getDir();
+        pending = compactor.submit(() -> {
+            FileStorage.compactJournal(dir);
+            return null;
+        });
+        return pending;
+    }
+}
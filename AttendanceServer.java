@@ -0,0 +1,350 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * AttendanceServer.java
+ * Headless server mode (java Main --server [port] [--bind ADDRESS]). One process owns the
+ * roster, the attendance store and the journal, and faculty terminals talk to it over a
+ * small HTTP API (JDK built-in server) instead of each rewriting the shared CSV files.
+ * There is no authentication, so it listens on the loopback interface unless an address
+ * to bind is given explicitly (e.g. --bind 0.0.0.0 on a trusted network).
+ *
+ * Requests are handled on a thread pool, but every read and write goes through the
+ * store's single lock, so they run one at a time against the store. Most reads are
+ * answered from memory; the first date-range or cohort query (and /records) loads any
+ * dates still only on disk and builds its index while holding that lock. Writes also
+ * hold the journal's lock from the store update through the append, so the journal
+ * replays in the order memory saw. /marks and /remove are one append and flush per
+ * request; /mark only queues its records, which the journal flushes after its idle
+ * window or on every change with -Dattendance.durability=change.
+ *
+ * API (plain text, one CSV record per line, UTF-8):
+ *   GET  /students                        id,name lines
+ *   POST /students                        body id,name lines; replaces and saves the roster
+ *   GET  /records                         date,id,status lines (full attendance)
+ *   GET  /attendance?date=D               id,status lines for one date
+ *   GET  /percentage?id=S[&from=D&to=D]   present,total,percentage (lifetime or range)
+ *   GET  /daycounts[?from=D&to=D]         date,present,recorded lines
+ *   GET  /defaulters[?threshold=75&from=D&to=D]  id,present,total lines, lowest percentage first
+ *   GET  /absent?from=D&to=D              ids absent on every recorded date of the range
+ *   POST /mark?date=D&status=P|A          body: one student id per line
+ *   POST /marks                           body date,id,status lines (bulk)
+ *   POST /remove[?id=S]                   drop students' attendance; body: more ids, one per line
+ *   POST /flush                           write pending journal records and compact
+ */
+public class AttendanceServer {
+
+    public static final int DEFAULT_PORT = 8085;
+    // every path handle() does not serve is counted under this one name
+    private static final String UNKNOWN_PATH = "/other";
+
+    private final AttendanceStore store;
+    private final AttendanceJournal journal;
+    private final List<Student> students;
+    private final ReentrantLock rosterLock = new ReentrantLock();
+    private HttpServer http;
+    private ExecutorService executor;
+
+    public AttendanceServer(List<Student> students, AttendanceStore store) {
+        this.students = new ArrayList<>(students);
+        this.store = store;
+        this.journal = new AttendanceJournal(store);
+    }
+
+    /**
+     * Load the data files in dir and start serving on the given port (0 picks a free port).
+     * bind is the address to listen on; null means loopback only.
+     */
+    public static AttendanceServer start(File dir, InetAddress bind, int port) throws IOException {
+        AttendanceServer server = new AttendanceServer(FileStorage.loadStudents(dir), AttendanceStore.load(dir));
+        server.listen(bind, port);
+        return server;
+    }
+
+    /**
+     * Listen on the loopback interface only.
+     */
+    public void listen(int port) throws IOException {
+        listen(null, port);
+    }
+
+    public void listen(InetAddress bind, int port) throws IOException {
+        // without TCP_NODELAY small keep-alive responses stall on delayed ACKs
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        http = HttpServer.create(new InetSocketAddress(bind != null ? bind : InetAddress.getLoopbackAddress(), port), 256);
+        executor = Executors.newFixedThreadPool(Math.max(8, Runtime.getRuntime().availableProcessors() * 2));
+        http.setExecutor(executor);
+        http.createContext("/", this::handle);
+        http.start();
+    }
+
+    public int getPort() {
+        return http.getAddress().getPort();
+    }
+
+    public InetAddress getAddress() {
+        return http.getAddress().getAddress();
+    }
+
+    /**
+     * Stop accepting requests and write out everything the journal still holds.
+     */
+    public void stop() throws IOException {
+        http.stop(1);
+        executor.shutdown();
+        journal.close();
+    }
+
+    private void handle(HttpExchange ex) throws IOException {
+        String path = ex.getRequestURI().getPath();
+        // span and error names come from a fixed set, whatever paths clients send
+        String name = "server" + (ROUTES.contains(path) ? path : UNKNOWN_PATH);
+        try (Metrics.Span span = Metrics.span(name)) {
+            String method = ex.getRequestMethod();
+            Map<String, String> q = query(ex.getRequestURI().getRawQuery());
+            switch (method + " " + path) {
+                case "GET /students": getStudents(ex); break;
+                case "POST /students": postStudents(ex); break;
+                case "GET /records": getRecords(ex); break;
+                case "GET /attendance": getAttendance(ex, q); break;
+                case "GET /percentage": getPercentage(ex, q); break;
+                case "GET /daycounts": getDayCounts(ex, q); break;
+                case "GET /defaulters": getDefaulters(ex, q); break;
+                case "GET /absent": getAbsent(ex, q); break;
+                case "POST /mark": postMark(ex, q); break;
+                case "POST /marks": postMarks(ex); break;
+                case "POST /remove": postRemove(ex, q); break;
+                case "POST /flush": postFlush(ex); break;
+                default: send(ex, 404, "Not found: " + method + " " + path);
+            }
+            span.finish();
+        } catch (IllegalArgumentException e) {
+            sendError(ex, 400, e.getMessage());
+        } catch (Exception e) {
+            Metrics.error(name, e);
+            sendError(ex, 500, "Server error: " + e.getMessage());
+        } finally {
+            ex.close();
+        }
+    }
+
+    // the paths handle() serves
+    private static final Set<String> ROUTES = new HashSet<>(Arrays.asList("/students", "/records",
+            "/attendance", "/percentage", "/daycounts", "/defaulters", "/absent", "/mark", "/marks",
+            "/remove", "/flush"));
+
+    private void getStudents(HttpExchange ex) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        rosterLock.lock();
+        try {
+            for (Student s : students) sb.append(s.getId()).append(',').append(s.getName()).append('\n');
+        } finally {
+            rosterLock.unlock();
+        }
+        send(ex, 200, sb.toString());
+    }
+
+    private void postStudents(HttpExchange ex) throws IOException {
+        List<Student> list = new ArrayList<>();
+        for (String line : body(ex)) {
+            String[] p = line.split(",", 2);
+            if (p.length == 2) list.add(new Student(p[0].trim(), p[1].trim()));
+        }
+        rosterLock.lock();
+        try {
+            FileStorage.saveStudents(store.getDir(), list);
+            students.clear();
+            students.addAll(list);
+        } finally {
+            rosterLock.unlock();
+        }
+        send(ex, 200, "saved " + list.size());
+    }
+
+    private void getRecords(HttpExchange ex) throws IOException {
+        // taken before the headers go out, so a failure here can still be a 500
+        List<String[]> records = store.toRecords();
+        ex.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        ex.sendResponseHeaders(200, 0);
+        try (PrintWriter pw = new PrintWriter(new BufferedWriter(new OutputStreamWriter(ex.getResponseBody(), StandardCharsets.UTF_8)))) {
+            for (String[] r : records) pw.print(r[0] + "," + r[1] + "," + r[2] + "\n");
+        }
+    }
+
+    private void getAttendance(HttpExchange ex, Map<String, String> q) throws IOException {
+        String date = date(q);
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> e : store.getForDate(date).entrySet()) {
+            sb.append(e.getKey()).append(',').append(e.getValue()).append('\n');
+        }
+        send(ex, 200, sb.toString());
+    }
+
+    private void getPercentage(HttpExchange ex, Map<String, String> q) throws IOException {
+        String id = required(q, "id");
+        int[] c;
+        if (q.containsKey("from") || q.containsKey("to")) {
+            c = store.getRangeCounts(id, LocalDate.parse(validDate(required(q, "from"))),
+                    LocalDate.parse(validDate(required(q, "to"))));
+        } else {
+            c = new int[]{store.getPresent(id), store.getTotal(id)};
+        }
+        send(ex, 200, c[0] + "," + c[1] + "," + String.format("%.2f", c[1] == 0 ? 0.0 : c[0] * 100.0 / c[1]) + "\n");
+    }
+
+    private void getDayCounts(HttpExchange ex, Map<String, String> q) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, int[]> e : store.getDayCounts(optionalDate(q, "from"), optionalDate(q, "to")).entrySet()) {
+            sb.append(e.getKey()).append(',').append(e.getValue()[0]).append(',').append(e.getValue()[1]).append('\n');
+        }
+        send(ex, 200, sb.toString());
+    }
+
+    private void getDefaulters(HttpExchange ex, Map<String, String> q) throws IOException {
+        double threshold = CohortEngine.DEFAULT_THRESHOLD;
+        if (q.containsKey("threshold")) {
+            try {
+                threshold = Double.parseDouble(q.get("threshold").trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("threshold must be a number: " + q.get("threshold"));
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        Map<String, int[]> below = store.getDefaulters(threshold, optionalDate(q, "from"), optionalDate(q, "to"));
+        for (Map.Entry<String, int[]> e : below.entrySet()) {
+            sb.append(e.getKey()).append(',').append(e.getValue()[0]).append(',').append(e.getValue()[1]).append('\n');
+        }
+        send(ex, 200, sb.toString());
+    }
+
+    private void getAbsent(HttpExchange ex, Map<String, String> q) throws IOException {
+        LocalDate from = LocalDate.parse(validDate(required(q, "from")));
+        LocalDate to = LocalDate.parse(validDate(required(q, "to")));
+        StringBuilder sb = new StringBuilder();
+        for (String id : store.getAbsentEveryDay(from, to)) sb.append(id).append('\n');
+        send(ex, 200, sb.toString());
+    }
+
+    private void postMark(HttpExchange ex, Map<String, String> q) throws IOException {
+        String date = date(q);
+        String status = status(required(q, "status"));
+        List<String> ids = body(ex);
+        journal.mark(date, ids, status);
+        send(ex, 200, "marked " + ids.size());
+    }
+
+    private void postMarks(HttpExchange ex) throws IOException {
+        List<String[]> records = new ArrayList<>();
+        for (String line : body(ex)) {
+            String[] p = line.split(",", 3);
+            if (p.length != 3) throw new IllegalArgumentException("expected date,id,status: " + line);
+            records.add(new String[]{validDate(p[0].trim()), p[1].trim(), status(p[2].trim())});
+        }
+        // the whole request is one journal append and one flush
+        journal.markAll(records);
+        send(ex, 200, "marked " + records.size());
+    }
+
+    private void postRemove(HttpExchange ex, Map<String, String> q) throws IOException {
+        List<String> ids = body(ex);
+        if (q.containsKey("id")) ids.add(required(q, "id"));
+        if (ids.isEmpty()) throw new IllegalArgumentException("missing parameter: id");
+        journal.removeStudents(ids);
+        send(ex, 200, "removed " + ids.size());
+    }
+
+    private void postFlush(HttpExchange ex) throws IOException {
+        try {
+            journal.compactAsync().get();
+        } catch (Exception e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        send(ex, 200, "flushed");
+    }
+
+    private static List<String> body(HttpExchange ex) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(ex.getRequestBody(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (!line.trim().isEmpty()) lines.add(line.trim());
+            }
+        }
+        return lines;
+    }
+
+    private static void send(HttpExchange ex, int code, String text) throws IOException {
+        byte[] b = text.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        ex.sendResponseHeaders(code, b.length == 0 ? -1 : b.length);
+        if (b.length > 0) {
+            try (OutputStream out = ex.getResponseBody()) {
+                out.write(b);
+            }
+        }
+    }
+
+    /**
+     * Send an error response if nothing has been sent yet; once the headers are out (a
+     * streamed body failed half way) the exchange can only be closed, which handle() does.
+     */
+    private static void sendError(HttpExchange ex, int code, String text) throws IOException {
+        if (ex.getResponseCode() == -1) send(ex, code, text);
+    }
+
+    private static Map<String, String> query(String raw) {
+        Map<String, String> q = new HashMap<>();
+        if (raw == null) return q;
+        for (String kv : raw.split("&")) {
+            int i = kv.indexOf('=');
+            if (i < 0) continue;
+            q.put(URLDecoder.decode(kv.substring(0, i), StandardCharsets.UTF_8),
+                    URLDecoder.decode(kv.substring(i + 1), StandardCharsets.UTF_8));
+        }
+        return q;
+    }
+
+    private static String required(Map<String, String> q, String name) {
+        String v = q.get(name);
+        if (v == null || v.trim().isEmpty()) throw new IllegalArgumentException("missing parameter: " + name);
+        return v.trim();
+    }
+
+    private static String date(Map<String, String> q) {
+        return validDate(required(q, "date"));
+    }
+
+    private static LocalDate optionalDate(Map<String, String> q, String name) {
+        String v = q.get(name);
+        return v == null || v.trim().isEmpty() ? null : LocalDate.parse(validDate(v.trim()));
+    }
+
+    private static String validDate(String date) {
+        try {
+            LocalDate.parse(date);
+            return date;
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("date must be YYYY-MM-DD: " + date);
+        }
+    }
+
+    private static String status(String s) {
+        String v = s.toUpperCase();
+        if (!v.equals("P") && !v.equals("A")) throw new IllegalArgumentException("status must be P or A: " + s);
+        return CsvScanner.statusString(v.charAt(0));
+    }
+}
@@ -0,0 +1,631 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * AttendanceStore.java
+ * In-memory copy of attendance.csv, loaded once and kept in sync with every change.
+ * Holds the records by date and per-student present/total counters so percentage and
+ * by-date lookups do not have to re-read the file.
+ * Methods are synchronized so background storage tasks and the Swing thread can share it.
+ *
+ * Records are kept compact: student ids are interned to dense ints, dates are epoch days,
+ * and each recorded date is one byte array indexed by student int holding the status
+ * character (0 for no record). A record costs one byte instead of a map entry with its
+ * key and value Strings, so years of history for tens of thousands of students fit in a
+ * modest heap. Counts are int arrays indexed the same way.
+ *
+ * When attendance.snap matches attendance.csv, load() starts from the saved counts and date
+ * list only; a date's rows are read from attendance.csv (one indexed seek) the first time
+ * that date is touched, so startup time does not grow with the length of the history.
+ *
+ * Date-range counts come from a RangeCounts index built on the first range query and then
+ * updated on every change.
+ *
+ * Removing a student leaves a tombstone instead of reading the whole history: the student's
+ * counts and in-memory rows are dropped at once, rows still on disk are filtered out as
+ * their days are loaded, and the next compaction writes attendance.csv without them.
+ */
+public class AttendanceStore {
+
+    // data directory the store was loaded from; null for a store that only lives in memory
+    private final File dir;
+    // student ids interned to dense ints, in first-seen order
+    private final Map<String, Integer> studentIndex = new HashMap<>();
+    private String[] students = new String[64];
+    private int studentCount;
+    // per student int: present and total records
+    private int[] present = new int[64];
+    private int[] total = new int[64];
+    // epoch day -> that date's statuses
+    private final Map<Integer, Day> days = new HashMap<>();
+    // dates in attendance.csv whose rows are not in days yet (already included in the counts)
+    private final Map<Integer, String> unloaded = new HashMap<>();
+    // per-student Fenwick trees for range queries; null until first needed
+    private RangeCounts ranges;
+    // per-date bitsets for cohort queries; null until first needed
+    private CohortEngine cohorts;
+    // removed students whose rows may still be in the unloaded days of attendance.csv
+    private final BitSet tombstones = new BitSet();
+
+    /**
+     * An empty store that is not backed by files.
+     */
+    public AttendanceStore() {
+        this(null);
+    }
+
+    private AttendanceStore(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * An empty store that still belongs to dir, e.g. in place of one that failed to load.
+     */
+    public static AttendanceStore empty(File dir) {
+        return new AttendanceStore(dir);
+    }
+
+    /**
+     * One date's records: the status byte of each student int, 0 where there is none.
+     */
+    private static final class Day {
+        final String date; // shared by every record of the date
+        byte[] status;
+        int size;
+
+        Day(String date, int capacity) {
+            this.date = date;
+            this.status = new byte[Math.max(16, capacity)];
+        }
+
+        /** Set a status; returns the previous one (0 if none). */
+        byte put(int student, byte code) {
+            if (student >= status.length) status = Arrays.copyOf(status, Math.max(student + 1, status.length * 3 / 2));
+            byte old = status[student];
+            status[student] = code;
+            if (old == 0) size++;
+            return old;
+        }
+
+        byte remove(int student) {
+            if (student >= status.length) return 0;
+            byte old = status[student];
+            status[student] = 0;
+            if (old != 0) size--;
+            return old;
+        }
+
+        byte get(int student) {
+            return student < status.length ? status[student] : 0;
+        }
+    }
+
+    /**
+     * Records by date in the store's compact form, for bulk readers (reports, the range and
+     * cohort indexes, the attendance.csv writer). Dates are in ascending order; each has one
+     * status byte per student int, 0 where there is no record, and may be shorter than
+     * studentCount(). A view from withDays() shares the store's arrays and is only valid
+     * inside the call; snapshot() makes a copy that stays valid.
+     */
+    public static final class Days {
+        private final String[] ids;
+        private final int studentCount;
+        private final int[] epochDays;
+        private final String[] dates;
+        private final byte[][] statuses;
+
+        private Days(String[] ids, int studentCount, int[] epochDays, String[] dates, byte[][] statuses) {
+            this.ids = ids;
+            this.studentCount = studentCount;
+            this.epochDays = epochDays;
+            this.dates = dates;
+            this.statuses = statuses;
+        }
+
+        public int studentCount() { return studentCount; }
+
+        public String studentId(int student) { return ids[student]; }
+
+        public int size() { return dates.length; }
+
+        public int epochDay(int i) { return epochDays[i]; }
+
+        public String date(int i) { return dates[i]; }
+
+        public byte[] statuses(int i) { return statuses[i]; }
+
+        public static boolean isPresent(byte status) {
+            return status == 'P' || status == 'p';
+        }
+
+        public static String statusString(byte status) {
+            return CsvScanner.statusString((char) (status & 0xFF));
+        }
+    }
+
+    /**
+     * Load the store from a data directory, then replay attendance.journal on top. Uses
+     * attendance.snap when it matches the csv, else reads the full snapshot (attendance.bin in
+     * binary mode, else attendance.csv) and saves a fresh attendance.snap for the next start.
+     */
+    public static AttendanceStore load(File dir) throws IOException {
+        try (Metrics.Span span = Metrics.span("load.store")) {
+            AttendanceStore store = loadFiles(dir);
+            span.finish(store.studentCount, 0);
+            return store;
+        }
+    }
+
+    private static AttendanceStore loadFiles(File dir) throws IOException {
+        FileStorage.migrateAttendanceIfNeeded(dir);
+        FileStorage.noteAttendanceLoaded(dir);
+        AttendanceStore store = new AttendanceStore(dir);
+        AggregateSnapshot snap = FileStorage.loadAggregates(dir);
+        if (snap != null) {
+            for (Map.Entry<String, int[]> e : snap.counts.entrySet()) {
+                int s = store.index(e.getKey());
+                store.present[s] = e.getValue()[0];
+                store.total[s] = e.getValue()[1];
+            }
+            for (String date : snap.dates) {
+                int day = epochDay(date);
+                if (day != Integer.MIN_VALUE) store.unloaded.put(day, date);
+            }
+        } else {
+            AttendanceBinary.Columns cols = FileStorage.loadAttendanceColumns(dir);
+            if (cols != null) store.addAll(cols);
+            else FileStorage.forEachAttendance(dir, store.loader(false));
+            try {
+                FileStorage.saveAggregates(dir, store.aggregates());
+            } catch (IOException ex) {
+                // only a startup shortcut; the next load will simply read the csv again
+                Metrics.error("save.snapshot", ex);
+            }
+        }
+        FileStorage.repairJournal(dir);
+        for (String[] j : FileStorage.loadJournal(dir)) store.apply(j);
+        return store;
+    }
+
+    /**
+     * Current counts and dates, for attendance.snap.
+     */
+    public synchronized AggregateSnapshot aggregates() {
+        Map<String, int[]> copy = new HashMap<>();
+        for (int s = 0; s < studentCount; s++) {
+            if (total[s] > 0) copy.put(students[s], new int[]{present[s], total[s]});
+        }
+        return new AggregateSnapshot(copy, new ArrayList<>(getDates()));
+    }
+
+    /**
+     * Consumer for attendance.csv rows. Rows come grouped by date with one shared String per
+     * date, so the date is parsed once per group rather than once per row. With onlyUnloaded,
+     * rows of dates already in memory and of tombstoned students are skipped and the counts
+     * are left alone (they already include those rows).
+     */
+    private FileStorage.AttendanceConsumer loader(boolean onlyUnloaded) {
+        return new FileStorage.AttendanceConsumer() {
+            String lastDate;
+            int lastDay = Integer.MIN_VALUE;
+            boolean wanted;
+
+            public void accept(String date, String studentId, String status) {
+                if (date != lastDate) {
+                    lastDate = date;
+                    lastDay = epochDay(date);
+                    wanted = lastDay != Integer.MIN_VALUE && (!onlyUnloaded || unloaded.containsKey(lastDay));
+                }
+                if (!wanted) return;
+                if (!onlyUnloaded) {
+                    set(lastDay, date, index(studentId), code(status));
+                    return;
+                }
+                int s = index(studentId);
+                if (!tombstones.get(s)) day(lastDay, date).put(s, code(status));
+            }
+        };
+    }
+
+    /**
+     * Read a date's rows from attendance.csv if they are not in memory yet.
+     */
+    private void ensureDay(int day) {
+        String date = unloaded.remove(day);
+        if (date == null) return;
+        try {
+            Map<String, String> rows = FileStorage.readSnapshotDay(dir, date);
+            for (Map.Entry<String, String> e : rows.entrySet()) {
+                int s = index(e.getKey());
+                if (!tombstones.get(s)) day(day, date).put(s, code(e.getValue()));
+            }
+        } catch (IOException ex) {
+            unloaded.put(day, date);
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Read every date still on disk, in one streaming pass over attendance.csv.
+     */
+    private void ensureAllDays() {
+        if (unloaded.isEmpty()) return;
+        try {
+            FileStorage.forEachAttendance(dir, loader(true));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        unloaded.clear();
+        days.values().removeIf(d -> d.size == 0);
+        // nothing left on disk for them to hide
+        tombstones.clear();
+    }
+
+    /**
+     * Apply one journal record: {"M", date, id, status}, {"D", date, id} or {"T", id}.
+     */
+    public synchronized void apply(String[] journalRecord) {
+        if (journalRecord[0].equals("M")) mark(journalRecord[1], journalRecord[2], journalRecord[3]);
+        else if (journalRecord[0].equals("T")) removeStudents(Collections.singletonList(journalRecord[1]));
+        else unmark(journalRecord[1], journalRecord[2]);
+    }
+
+    public synchronized void addAll(List<String[]> records) {
+        for (String[] r : records) mark(r[0], r[1], r[2]);
+    }
+
+    /**
+     * Load from mapped binary columns, which are already epoch days and status bytes.
+     */
+    public synchronized void addAll(AttendanceBinary.Columns cols) {
+        for (int i = 0; i < cols.size(); i++) {
+            set(cols.epochDay(i), null, index(cols.studentId(i)), (byte) cols.status(i));
+        }
+    }
+
+    public synchronized void clear() {
+        studentIndex.clear();
+        students = new String[64];
+        studentCount = 0;
+        present = new int[64];
+        total = new int[64];
+        days.clear();
+        unloaded.clear();
+        tombstones.clear();
+        ranges = null;
+        cohorts = null;
+    }
+
+    /**
+     * Record a status for a student on a date, replacing any earlier status for that pair.
+     * A date that does not parse as YYYY-MM-DD is ignored, as when attendance.csv is read.
+     */
+    public synchronized void mark(String date, String studentId, String status) {
+        int day = epochDay(date);
+        if (day == Integer.MIN_VALUE) return;
+        set(day, date, index(studentId), code(status));
+    }
+
+    private void set(int day, String date, int s, byte code) {
+        // a removed id added back: its old rows must be gone from disk reads for good first
+        if (tombstones.get(s)) ensureAllDays();
+        ensureDay(day);
+        byte old = day(day, date).put(s, code);
+        if (old != 0) {
+            if (Days.isPresent(old)) present[s]--;
+            total[s]--;
+        }
+        if (Days.isPresent(code)) present[s]++;
+        total[s]++;
+        if (ranges != null) {
+            try {
+                if (old != 0) ranges.update(day, s, Days.isPresent(old), -1);
+                ranges.update(day, s, Days.isPresent(code), 1);
+            } catch (IllegalStateException ex) {
+                ranges = null; // the dates no longer fit; the next range query rebuilds and reports it
+            }
+        }
+        if (cohorts != null) cohorts.set(day, s, Days.isPresent(code));
+    }
+
+    /**
+     * Remove a single date/student record if present.
+     */
+    public synchronized void unmark(String date, String studentId) {
+        int day = epochDay(date);
+        Integer s = studentIndex.get(studentId);
+        if (day == Integer.MIN_VALUE || s == null) return;
+        ensureDay(day);
+        Day d = days.get(day);
+        if (d == null) return;
+        byte old = d.remove(s);
+        if (old == 0) return;
+        if (d.size == 0) days.remove(day);
+        if (Days.isPresent(old)) present[s]--;
+        total[s]--;
+        if (ranges != null) ranges.update(day, s, Days.isPresent(old), -1);
+        if (cohorts != null) cohorts.clear(day, s);
+    }
+
+    /**
+     * Drop every record of the given students. Days not loaded yet are left on disk; the
+     * students are tombstoned so those rows are skipped when the days are read.
+     */
+    public synchronized void removeStudents(Collection<String> studentIds) {
+        BitSet removed = new BitSet();
+        for (String id : studentIds) {
+            Integer s = studentIndex.get(id);
+            if (s == null) continue;
+            removed.set(s);
+            present[s] = 0;
+            total[s] = 0;
+            if (ranges != null) ranges.removeStudent(s);
+            if (cohorts != null) cohorts.removeStudent(s);
+        }
+        if (removed.isEmpty()) return;
+        Iterator<Day> it = days.values().iterator();
+        while (it.hasNext()) {
+            Day d = it.next();
+            for (int s = removed.nextSetBit(0); s >= 0; s = removed.nextSetBit(s + 1)) d.remove(s);
+            if (d.size == 0) it.remove();
+        }
+        if (!unloaded.isEmpty()) tombstones.or(removed);
+    }
+
+    public synchronized String getStatus(String date, String studentId) {
+        int day = epochDay(date);
+        Integer s = studentIndex.get(studentId);
+        if (day == Integer.MIN_VALUE || s == null) return null;
+        ensureDay(day);
+        Day d = days.get(day);
+        byte b = d == null ? 0 : d.get(s);
+        return b == 0 ? null : Days.statusString(b);
+    }
+
+    /**
+     * Copy of studentId -> status for the given date; empty if nothing was recorded.
+     */
+    public synchronized Map<String, String> getForDate(String date) {
+        Map<String, String> out = new HashMap<>();
+        int day = epochDay(date);
+        if (day == Integer.MIN_VALUE) return out;
+        ensureDay(day);
+        Day d = days.get(day);
+        if (d == null) return out;
+        int n = Math.min(d.status.length, studentCount);
+        for (int s = 0; s < n; s++) {
+            if (d.status[s] != 0) out.put(students[s], Days.statusString(d.status[s]));
+        }
+        return out;
+    }
+
+    /**
+     * Like getForDate, but a date still only on disk is read without being kept in memory,
+     * so a long sequential scan (a range export) does not pull the whole history in.
+     * Such a date has no journal changes; those would have loaded it.
+     */
+    public Map<String, String> readForDate(String date) throws IOException {
+        Set<String> removed = new HashSet<>();
+        synchronized (this) {
+            if (!unloaded.containsKey(epochDay(date))) return getForDate(date);
+            for (int s = tombstones.nextSetBit(0); s >= 0; s = tombstones.nextSetBit(s + 1)) removed.add(students[s]);
+        }
+        Map<String, String> map = FileStorage.readSnapshotDay(dir, date);
+        map.keySet().removeAll(removed);
+        return map;
+    }
+
+    public synchronized int getPresent(String studentId) {
+        Integer s = studentIndex.get(studentId);
+        return s == null ? 0 : present[s];
+    }
+
+    public synchronized int getTotal(String studentId) {
+        Integer s = studentIndex.get(studentId);
+        return s == null ? 0 : total[s];
+    }
+
+    public synchronized double getPercentage(String studentId) {
+        Integer s = studentIndex.get(studentId);
+        if (s == null || total[s] == 0) return 0.0;
+        return (present[s] * 100.0) / total[s];
+    }
+
+    /**
+     * {present, total} for a student between two dates, both inclusive.
+     */
+    public synchronized int[] getRangeCounts(String studentId, LocalDate from, LocalDate to) {
+        if (ranges == null) {
+            try (Metrics.Span span = Metrics.span("build.ranges")) {
+                ensureAllDays();
+                ranges = RangeCounts.build(view(false));
+                span.finish(days.size(), 0);
+            }
+        }
+        Integer s = studentIndex.get(studentId);
+        return s == null ? new int[2] : ranges.get(s, from.toEpochDay(), to.toEpochDay());
+    }
+
+    public synchronized double getPercentage(String studentId, LocalDate from, LocalDate to) {
+        int[] c = getRangeCounts(studentId, from, to);
+        return c[1] == 0 ? 0.0 : (c[0] * 100.0) / c[1];
+    }
+
+    /**
+     * studentId -> {overall %, from..to %} for each of the ids, in one pass under the lock so
+     * a table can show plain numbers without calling back into the store. The range % is NaN
+     * when from is null. Meant for a background thread: the first range query loads every
+     * date and builds the range index.
+     */
+    public synchronized Map<String, double[]> getPercentages(Collection<String> studentIds, LocalDate from, LocalDate to) {
+        Map<String, double[]> out = new HashMap<>(studentIds.size() * 2);
+        for (String id : studentIds) {
+            out.put(id, new double[]{getPercentage(id), from == null ? Double.NaN : getPercentage(id, from, to)});
+        }
+        return out;
+    }
+
+    /**
+     * date -> {present, recorded} for each recorded date in the range (null bounds are open).
+     */
+    public synchronized SortedMap<String, int[]> getDayCounts(LocalDate from, LocalDate to) {
+        SortedMap<String, int[]> out = new TreeMap<>();
+        for (Map.Entry<Integer, int[]> e : cohorts().dayCounts(lo(from), hi(to)).entrySet()) {
+            out.put(days.get(e.getKey()).date, e.getValue());
+        }
+        return out;
+    }
+
+    /**
+     * Students below threshold percent over the range, lowest first, as studentId -> {present, total}.
+     */
+    public synchronized Map<String, int[]> getDefaulters(double threshold, LocalDate from, LocalDate to) {
+        List<int[]> below = cohorts().below(threshold, lo(from), hi(to));
+        below.sort((a, b) -> {
+            int c = Long.compare((long) a[1] * b[2], (long) b[1] * a[2]);
+            return c != 0 ? c : students[a[0]].compareTo(students[b[0]]);
+        });
+        Map<String, int[]> out = new LinkedHashMap<>();
+        for (int[] r : below) out.put(students[r[0]], new int[]{r[1], r[2]});
+        return out;
+    }
+
+    /**
+     * Students marked absent on every recorded date of the range, sorted by id.
+     */
+    public synchronized List<String> getAbsentEveryDay(LocalDate from, LocalDate to) {
+        List<String> out = new ArrayList<>();
+        for (int s : cohorts().absentEveryDay(lo(from), hi(to))) out.add(students[s]);
+        Collections.sort(out);
+        return out;
+    }
+
+    private CohortEngine cohorts() {
+        if (cohorts == null) {
+            try (Metrics.Span span = Metrics.span("build.cohorts")) {
+                ensureAllDays();
+                cohorts = CohortEngine.build(view(false));
+                span.finish(days.size(), 0);
+            }
+        }
+        return cohorts;
+    }
+
+    private static int lo(LocalDate d) {
+        return d == null ? Integer.MIN_VALUE : (int) d.toEpochDay();
+    }
+
+    private static int hi(LocalDate d) {
+        return d == null ? Integer.MAX_VALUE : (int) d.toEpochDay();
+    }
+
+    public synchronized Set<String> getDates() {
+        Set<String> dates = new HashSet<>();
+        for (Day d : days.values()) dates.add(d.date);
+        dates.addAll(unloaded.values());
+        return dates;
+    }
+
+    /**
+     * Run fn over a read-only Days view while holding the store's lock, so bulk readers
+     * (reports, exports) see one consistent state without copying it. fn may hand the view
+     * to other threads as long as it waits for them before returning.
+     */
+    public synchronized <T> T withDays(Function<Days, T> fn) {
+        ensureAllDays();
+        return fn.apply(view(false));
+    }
+
+    /**
+     * A copy of every record in Days form (about one byte per record), e.g. for a
+     * compaction that writes attendance.csv in the background while marks continue.
+     */
+    public synchronized Days snapshot() {
+        ensureAllDays();
+        return view(true);
+    }
+
+    private Days view(boolean copy) {
+        Integer[] order = days.keySet().toArray(new Integer[0]);
+        Arrays.sort(order);
+        int[] epochDays = new int[order.length];
+        String[] dates = new String[order.length];
+        byte[][] statuses = new byte[order.length][];
+        for (int i = 0; i < order.length; i++) {
+            Day d = days.get(order[i]);
+            epochDays[i] = order[i];
+            dates[i] = d.date;
+            statuses[i] = copy ? Arrays.copyOf(d.status, Math.min(d.status.length, studentCount)) : d.status;
+        }
+        return new Days(copy ? Arrays.copyOf(students, studentCount) : students, studentCount, epochDays, dates, statuses);
+    }
+
+    /**
+     * Flatten into {date, studentId, status} rows in the attendance.csv layout.
+     */
+    public synchronized List<String[]> toRecords() {
+        ensureAllDays();
+        List<String[]> out = new ArrayList<>();
+        for (Day d : days.values()) {
+            int n = Math.min(d.status.length, studentCount);
+            for (int s = 0; s < n; s++) {
+                if (d.status[s] != 0) out.add(new String[]{d.date, students[s], Days.statusString(d.status[s])});
+            }
+        }
+        return out;
+    }
+
+    /**
+     * The data directory the store was loaded from, or null if it only lives in memory.
+     */
+    public File getDir() {
+        return dir;
+    }
+
+    /**
+     * A long identifying a date and student, (epochDay << 32) | student int, for callers that
+     * key records in a map; -1 if the date does not parse.
+     */
+    public synchronized long recordKey(String date, String studentId) {
+        int day = epochDay(date);
+        return day == Integer.MIN_VALUE ? -1 : ((long) day << 32) | index(studentId);
+    }
+
+    private int index(String studentId) {
+        Integer s = studentIndex.get(studentId);
+        if (s != null) return s;
+        if (studentCount == students.length) {
+            int n = studentCount * 2;
+            students = Arrays.copyOf(students, n);
+            present = Arrays.copyOf(present, n);
+            total = Arrays.copyOf(total, n);
+        }
+        students[studentCount] = studentId;
+        studentIndex.put(studentId, studentCount);
+        return studentCount++;
+    }
+
+    private Day day(int day, String date) {
+        Day d = days.get(day);
+        if (d == null) {
+            d = new Day(date != null ? date : LocalDate.ofEpochDay(day).toString(), studentCount);
+            days.put(day, d);
+        }
+        return d;
+    }
+
+    private static byte code(String status) {
+        return status.isEmpty() ? (byte) ' ' : (byte) status.charAt(0);
+    }
+
+    // Integer.MIN_VALUE if the string is not a YYYY-MM-DD date
+    private static int epochDay(String date) {
+        byte[] b = date.getBytes(StandardCharsets.US_ASCII);
+        return CsvScanner.parseEpochDay(b, 0, b.length);
+    }
+}
@@ -0,0 +1,92 @@
+import javax.swing.table.AbstractTableModel;
+import java.util.*;
+
+/**
+ * AttendanceTableModel.java
+ * Attendance table for one date: every student in the roster with their P/A status
+ * (blank if nothing recorded). Backed by the roster list and a studentId -> status map,
+ * so no per-row Vectors are built and a reload fires one table-changed event.
+ */
+public class AttendanceTableModel extends AbstractTableModel {
+
+    private static final String[] COLUMNS = {"ID", "Name", "Status (P/A)"};
+
+    private List<Student> students = new ArrayList<>();
+    private Map<String, String> statuses = new HashMap<>();
+
+    public void setData(List<Student> students, Map<String, String> statuses) {
+        this.students = students;
+        this.statuses = statuses;
+        fireTableDataChanged();
+    }
+
+    /**
+     * Show a different list of students (e.g. a search result) with the same statuses.
+     */
+    public void setStudents(List<Student> students) {
+        this.students = students;
+        fireTableDataChanged();
+    }
+
+    /**
+     * Repaint after the roster list changed.
+     */
+    public void refresh() {
+        fireTableDataChanged();
+    }
+
+    /**
+     * The list grew at the end (new students in roster order); announce only the new rows.
+     */
+    public void appendRows(List<Student> students) {
+        int old = this.students.size();
+        this.students = students;
+        if (students.size() > old) fireTableRowsInserted(old, students.size() - 1);
+    }
+
+    /**
+     * Take new statuses for the shown date and repaint only the rows of the given students.
+     */
+    public void updateStatuses(Map<String, String> statuses, Set<String> ids) {
+        this.statuses = statuses;
+        int start = -1;
+        for (int r = 0; r <= students.size(); r++) {
+            boolean hit = r < students.size() && ids.contains(students.get(r).getId());
+            if (hit && start < 0) {
+                start = r;
+            } else if (!hit && start >= 0) {
+                fireTableRowsUpdated(start, r - 1);
+                start = -1;
+            }
+        }
+    }
+
+    public Student getStudentAt(int row) {
+        return students.get(row);
+    }
+
+    @Override
+    public int getRowCount() {
+        return students.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int c) {
+        return COLUMNS[c];
+    }
+
+    @Override
+    public Object getValueAt(int r, int c) {
+        Student s = students.get(r);
+        switch (c) {
+            case 0: return s.getId();
+            case 1: return s.getName();
+            default: return statuses.getOrDefault(s.getId(), "");
+        }
+    }
+}
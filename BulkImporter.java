@@ -0,0 +1,158 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * BulkImporter.java
+ * Imports large roster (id,name) and attendance (date,studentId,status) CSV files, such as
+ * registrar exports at the start of a term. The file is split into chunks of lines that are
+ * parsed and validated in parallel on the common fork-join pool; chunk results are then merged
+ * in file order, deduplicating student ids through a hash set. Rejected lines are kept with
+ * their line number and reason for the error report.
+ * Parsing has no side effects; callers merge the accepted rows into the store in one write.
+ */
+public class BulkImporter {
+
+    private static final int CHUNK_LINES = 4096;
+
+    public static class Result {
+        public final List<Student> students = new ArrayList<>();
+        public final List<String[]> records = new ArrayList<>(); // {date, studentId, status}
+        public final List<String> rejected = new ArrayList<>();   // "line N: reason: text"
+        final List<Integer> studentLines = new ArrayList<>();    // line number of each student
+        public int lines;
+    }
+
+    /**
+     * Move accepted attendance records dated outside a term shard's term to the rejected
+     * lines, so an import into one term never writes another term's dates.
+     */
+    public static void rejectOutside(Result r, ShardManifest.Shard shard) {
+        if (shard == null || !shard.isTerm()) return;
+        Iterator<String[]> it = r.records.iterator();
+        while (it.hasNext()) {
+            String[] rec = it.next();
+            if (shard.covers(rec[0])) continue;
+            r.rejected.add("outside term " + shard + ": " + String.join(",", rec));
+            it.remove();
+        }
+    }
+
+    /**
+     * Parse a roster file. Ids already in existingIds, or repeated within the file, are rejected.
+     */
+    public static Result parseRoster(File f, Collection<String> existingIds) throws IOException {
+        try (Metrics.Span span = Metrics.span("import.roster")) {
+            List<String> lines = Files.readAllLines(f.toPath(), StandardCharsets.UTF_8);
+            Result parsed = ForkJoinPool.commonPool().invoke(new ParseTask(lines, 0, lines.size(), true, null));
+            // merge step: first occurrence of an id wins
+            Set<String> seen = new HashSet<>(existingIds);
+            Result out = new Result();
+            out.lines = lines.size();
+            out.rejected.addAll(parsed.rejected);
+            for (int i = 0; i < parsed.students.size(); i++) {
+                Student s = parsed.students.get(i);
+                if (seen.add(s.getId())) out.students.add(s);
+                else out.rejected.add("line " + parsed.studentLines.get(i) + ": duplicate id: " + s.getId() + "," + s.getName());
+            }
+            span.finish(out.lines, f.length());
+            return out;
+        }
+    }
+
+    /**
+     * Parse an attendance file. Rows for ids not in knownIds are rejected; when a date+id pair
+     * repeats, the later row wins, as with the journal.
+     */
+    public static Result parseAttendance(File f, Set<String> knownIds) throws IOException {
+        try (Metrics.Span span = Metrics.span("import.attendance")) {
+            List<String> lines = Files.readAllLines(f.toPath(), StandardCharsets.UTF_8);
+            Result out = ForkJoinPool.commonPool().invoke(new ParseTask(lines, 0, lines.size(), false, knownIds));
+            out.lines = lines.size();
+            span.finish(out.lines, f.length());
+            return out;
+        }
+    }
+
+    /**
+     * Write the rejected lines, one per line, after a short summary.
+     */
+    public static void writeErrorReport(Result r, File out) throws IOException {
+        try (PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(out)))) {
+            pw.println("# " + r.lines + " lines read, " + (r.students.size() + r.records.size())
+                    + " accepted, " + r.rejected.size() + " rejected");
+            for (String line : r.rejected) pw.println(line);
+        }
+    }
+
+    private static class ParseTask extends RecursiveTask<Result> {
+        private final List<String> lines;
+        private final int from, to;
+        private final boolean roster;
+        private final Set<String> knownIds;
+
+        ParseTask(List<String> lines, int from, int to, boolean roster, Set<String> knownIds) {
+            this.lines = lines;
+            this.from = from;
+            this.to = to;
+            this.roster = roster;
+            this.knownIds = knownIds;
+        }
+
+        @Override
+        protected Result compute() {
+            if (to - from > CHUNK_LINES) {
+                int mid = (from + to) >>> 1;
+                ParseTask left = new ParseTask(lines, from, mid, roster, knownIds);
+                left.fork();
+                Result right = new ParseTask(lines, mid, to, roster, knownIds).compute();
+                Result merged = left.join();
+                merged.students.addAll(right.students);
+                merged.studentLines.addAll(right.studentLines);
+                merged.records.addAll(right.records);
+                merged.rejected.addAll(right.rejected);
+                return merged;
+            }
+            Result r = new Result();
+            for (int i = from; i < to; i++) {
+                String line = lines.get(i);
+                if (line.trim().isEmpty()) continue;
+                if (roster) parseStudent(line, i + 1, r);
+                else parseRecord(line, i + 1, r);
+            }
+            return r;
+        }
+
+        private void parseStudent(String line, int lineNo, Result r) {
+            String[] p = line.split(",", 2);
+            if (p.length != 2 || p[0].trim().isEmpty() || p[1].trim().isEmpty()) {
+                r.rejected.add("line " + lineNo + ": expected id,name: " + line);
+                return;
+            }
+            r.students.add(new Student(p[0].trim(), p[1].trim()));
+            r.studentLines.add(lineNo);
+        }
+
+        private void parseRecord(String line, int lineNo, Result r) {
+            String[] p = line.split(",", 3);
+            if (p.length != 3) {
+                r.rejected.add("line " + lineNo + ": expected date,studentId,status: " + line);
+                return;
+            }
+            String date = p[0].trim(), id = p[1].trim(), status = p[2].trim().toUpperCase();
+            byte[] d = date.getBytes(StandardCharsets.US_ASCII);
+            if (CsvScanner.parseEpochDay(d, 0, d.length) == Integer.MIN_VALUE) {
+                r.rejected.add("line " + lineNo + ": invalid date: " + line);
+            } else if (!status.equals("P") && !status.equals("A")) {
+                r.rejected.add("line " + lineNo + ": status must be P or A: " + line);
+            } else if (!knownIds.contains(id)) {
+                r.rejected.add("line " + lineNo + ": unknown student id: " + line);
+            } else {
+                r.records.add(new String[]{date, id, CsvScanner.statusString(status.charAt(0))});
+            }
+        }
+    }
+}
@@ -0,0 +1,187 @@
+import java.util.*;
+
+/**
+ * CohortEngine.java
+ * Whole-cohort queries over the attendance history: how many were present on each day,
+ * who is below the attendance threshold, and who was absent on every day of a range.
+ *
+ * Students are the store's student ints and days are epoch days, as in AttendanceStore.Days.
+ * Each date keeps two bitsets as long[] words over the student ints: recorded (the student
+ * has a status that day) and present. A day's counts are popcounts, "absent every day" is
+ * an AND over the days of (recorded AND NOT present), and the defaulter list is one pass
+ * over the set bits of the range followed by a flat sweep over the per-student count arrays.
+ * The store maps the ints back to ids and dates.
+ *
+ * Not thread-safe; AttendanceStore calls it under its own lock.
+ */
+public class CohortEngine {
+
+    public static final double DEFAULT_THRESHOLD = 75.0;
+
+    private int students;
+    private final TreeMap<Integer, Day> days = new TreeMap<>();
+
+    private static class Day {
+        long[] present;
+        long[] recorded;
+
+        Day(int words) {
+            present = new long[words];
+            recorded = new long[words];
+        }
+
+        void ensure(int words) {
+            if (recorded.length >= words) return;
+            int n = Math.max(words, recorded.length * 2);
+            present = Arrays.copyOf(present, n);
+            recorded = Arrays.copyOf(recorded, n);
+        }
+    }
+
+    /**
+     * Build from the store's records.
+     */
+    public static CohortEngine build(AttendanceStore.Days view) {
+        CohortEngine engine = new CohortEngine();
+        engine.students = view.studentCount();
+        int words = words(engine.students);
+        for (int d = 0; d < view.size(); d++) {
+            byte[] statuses = view.statuses(d);
+            int n = Math.min(statuses.length, engine.students);
+            Day day = new Day(words);
+            boolean any = false;
+            for (int s = 0; s < n; s++) {
+                if (statuses[s] == 0) continue;
+                setBits(day, s, AttendanceStore.Days.isPresent(statuses[s]));
+                any = true;
+            }
+            if (any) engine.days.put(view.epochDay(d), day);
+        }
+        return engine;
+    }
+
+    /**
+     * Record a status, replacing any earlier one for the day and student.
+     */
+    public void set(int epochDay, int student, boolean present) {
+        students = Math.max(students, student + 1);
+        Day day = days.computeIfAbsent(epochDay, k -> new Day(words(students)));
+        day.ensure(words(student + 1));
+        setBits(day, student, present);
+    }
+
+    public void clear(int epochDay, int student) {
+        Day day = days.get(epochDay);
+        if (day == null || (student >> 6) >= day.recorded.length) return;
+        long keep = ~(1L << student);
+        day.recorded[student >> 6] &= keep;
+        day.present[student >> 6] &= keep;
+        if (isEmpty(day.recorded)) days.remove(epochDay);
+    }
+
+    public void removeStudent(int student) {
+        long keep = ~(1L << student);
+        Iterator<Day> it = days.values().iterator();
+        while (it.hasNext()) {
+            Day day = it.next();
+            if ((student >> 6) >= day.recorded.length) continue;
+            day.recorded[student >> 6] &= keep;
+            day.present[student >> 6] &= keep;
+            if (isEmpty(day.recorded)) it.remove();
+        }
+    }
+
+    /**
+     * epoch day -> {present, recorded} for each recorded day between from and to, inclusive,
+     * in date order.
+     */
+    public SortedMap<Integer, int[]> dayCounts(int from, int to) {
+        SortedMap<Integer, int[]> out = new TreeMap<>();
+        for (Map.Entry<Integer, Day> e : range(from, to).entrySet()) {
+            out.put(e.getKey(), new int[]{popcount(e.getValue().present), popcount(e.getValue().recorded)});
+        }
+        return out;
+    }
+
+    /**
+     * Students whose percentage over the range is below threshold, as {student, present,
+     * total} in student order. Students with no record in the range are not listed.
+     */
+    public List<int[]> below(double threshold, int from, int to) {
+        int n = students;
+        int[] present = new int[n];
+        int[] total = new int[n];
+        for (Day day : range(from, to).values()) {
+            addBits(day.recorded, total);
+            addBits(day.present, present);
+        }
+        // present / total < threshold / 100, without dividing
+        List<int[]> out = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            if (total[i] > 0 && present[i] * 100.0 < threshold * total[i]) out.add(new int[]{i, present[i], total[i]});
+        }
+        return out;
+    }
+
+    /**
+     * Students marked absent on every recorded day of the range, in student order; empty
+     * when the range has no days.
+     */
+    public int[] absentEveryDay(int from, int to) {
+        long[] acc = null;
+        for (Day day : range(from, to).values()) {
+            if (acc == null) {
+                acc = new long[day.recorded.length];
+                for (int w = 0; w < acc.length; w++) acc[w] = day.recorded[w] & ~day.present[w];
+            } else {
+                int words = Math.min(acc.length, day.recorded.length);
+                for (int w = 0; w < words; w++) acc[w] &= day.recorded[w] & ~day.present[w];
+                for (int w = words; w < acc.length; w++) acc[w] = 0;
+            }
+        }
+        if (acc == null) return new int[0];
+        int[] out = new int[popcount(acc)];
+        int k = 0;
+        for (int w = 0; w < acc.length; w++) {
+            for (long x = acc[w]; x != 0; x &= x - 1) out[k++] = (w << 6) + Long.numberOfTrailingZeros(x);
+        }
+        return out;
+    }
+
+    private SortedMap<Integer, Day> range(int from, int to) {
+        return from > to ? Collections.emptySortedMap() : days.subMap(from, true, to, true);
+    }
+
+    private static void setBits(Day day, int student, boolean present) {
+        long bit = 1L << student;
+        day.recorded[student >> 6] |= bit;
+        if (present) day.present[student >> 6] |= bit;
+        else day.present[student >> 6] &= ~bit;
+    }
+
+    private static void addBits(long[] words, int[] counts) {
+        for (int w = 0; w < words.length; w++) {
+            for (long x = words[w]; x != 0; x &= x - 1) {
+                int i = (w << 6) + Long.numberOfTrailingZeros(x);
+                if (i < counts.length) counts[i]++;
+            }
+        }
+    }
+
+    private static int popcount(long[] words) {
+        int n = 0;
+        for (long w : words) n += Long.bitCount(w);
+        return n;
+    }
+
+    private static boolean isEmpty(long[] words) {
+        for (long w : words) {
+            if (w != 0) return false;
+        }
+        return true;
+    }
+
+    private static int words(int bits) {
+        return Math.max(1, (bits + 63) >> 6);
+    }
+}
@@ -0,0 +1,195 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * CsvScanner.java
+ * Byte-level streaming reader for the CSV files. It scans delimiters in place inside a
+ * reusable buffer and hands each line's fields to a visitor as (buffer, start, length)
+ * ranges, so no line String, trim() copy or split() array is created per row.
+ * Dates are parsed straight to epoch days and statuses to a char.
+ * Blank lines and whitespace around fields are skipped, like the old readLine() loaders.
+ */
+public class CsvScanner {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Receives one attendance row: date,studentId,status.
+     */
+    public interface AttendanceVisitor {
+        void record(int epochDay, byte[] buf, int idStart, int idLen, char status);
+    }
+
+    /**
+     * Receives one students.csv row: id,name (the name is everything after the first comma).
+     */
+    public interface StudentVisitor {
+        void student(byte[] buf, int idStart, int idLen, int nameStart, int nameLen);
+    }
+
+    /**
+     * Receives one raw line with up to maxFields comma-separated, trimmed fields.
+     */
+    private interface LineVisitor {
+        void line(byte[] buf, int[] starts, int[] lens, int fields);
+    }
+
+    public static void scanAttendance(InputStream in, AttendanceVisitor v) throws IOException {
+        scan(in, 3, (buf, starts, lens, fields) -> {
+            if (fields != 3 || lens[1] == 0 || lens[2] == 0) return;
+            int day = parseEpochDay(buf, starts[0], lens[0]);
+            if (day == Integer.MIN_VALUE) return;
+            v.record(day, buf, starts[1], lens[1], (char) buf[starts[2]]);
+        });
+    }
+
+    public static void scanStudents(InputStream in, StudentVisitor v) throws IOException {
+        scan(in, 2, (buf, starts, lens, fields) -> {
+            if (fields != 2) return;
+            v.student(buf, starts[0], lens[0], starts[1], lens[1]);
+        });
+    }
+
+    private static void scan(InputStream in, int maxFields, LineVisitor v) throws IOException {
+        byte[] buf = new byte[BUFFER_SIZE];
+        int[] starts = new int[maxFields];
+        int[] lens = new int[maxFields];
+        int len = 0;     // bytes in buf
+        int pos = 0;     // start of the current (unfinished) line
+        boolean eof = false;
+        while (true) {
+            int nl = indexOf(buf, pos, len, (byte) '\n');
+            if (nl < 0) {
+                if (eof) {
+                    if (pos < len) splitLine(buf, pos, len, maxFields, starts, lens, v);
+                    return;
+                }
+                // move the partial line to the front (growing the buffer for very long lines) and refill
+                if (pos > 0) {
+                    System.arraycopy(buf, pos, buf, 0, len - pos);
+                    len -= pos;
+                    pos = 0;
+                } else if (len == buf.length) {
+                    buf = Arrays.copyOf(buf, buf.length * 2);
+                }
+                int n = in.read(buf, len, buf.length - len);
+                if (n < 0) eof = true;
+                else len += n;
+                continue;
+            }
+            splitLine(buf, pos, nl, maxFields, starts, lens, v);
+            pos = nl + 1;
+        }
+    }
+
+    private static void splitLine(byte[] buf, int from, int to, int maxFields, int[] starts, int[] lens, LineVisitor v) {
+        int fields = 0;
+        int s = from;
+        while (fields < maxFields) {
+            int end = fields == maxFields - 1 ? to : indexOf(buf, s, to, (byte) ',');
+            if (end < 0) end = to;
+            // trim spaces, tabs and the '\r' of CRLF files
+            int a = s, b = end;
+            while (a < b && buf[a] <= ' ') a++;
+            while (b > a && buf[b - 1] <= ' ') b--;
+            starts[fields] = a;
+            lens[fields] = b - a;
+            fields++;
+            if (end == to) break;
+            s = end + 1;
+        }
+        if (fields == 1 && lens[0] == 0) return; // blank line
+        v.line(buf, starts, lens, fields);
+    }
+
+    private static int indexOf(byte[] buf, int from, int to, byte b) {
+        for (int i = from; i < to; i++) if (buf[i] == b) return i;
+        return -1;
+    }
+
+    /**
+     * Parse YYYY-MM-DD to days since 1970-01-01, or Integer.MIN_VALUE if it is not a valid date.
+     */
+    public static int parseEpochDay(byte[] buf, int start, int len) {
+        if (len != 10 || buf[start + 4] != '-' || buf[start + 7] != '-') return Integer.MIN_VALUE;
+        int y = digits(buf, start, 4), m = digits(buf, start + 5, 2), d = digits(buf, start + 8, 2);
+        if (y < 0 || m < 1 || m > 12 || d < 1 || d > daysInMonth(y, m)) return Integer.MIN_VALUE;
+        // days-from-civil (proleptic Gregorian), same result as LocalDate.toEpochDay()
+        int yy = m <= 2 ? y - 1 : y;
+        int era = Math.floorDiv(yy, 400);
+        int yoe = yy - era * 400;
+        int doy = (153 * (m + (m > 2 ? -3 : 9)) + 2) / 5 + d - 1;
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+
+    /**
+     * Shared String for a status char, so "P" and "A" are never allocated per row.
+     */
+    public static String statusString(char c) {
+        return c == 'P' ? "P" : c == 'A' ? "A" : String.valueOf(c);
+    }
+
+    private static int digits(byte[] buf, int start, int n) {
+        int v = 0;
+        for (int i = start; i < start + n; i++) {
+            int c = buf[i] - '0';
+            if (c < 0 || c > 9) return -1;
+            v = v * 10 + c;
+        }
+        return v;
+    }
+
+    private static int daysInMonth(int y, int m) {
+        if (m == 2) return (y % 4 == 0 && (y % 100 != 0 || y % 400 == 0)) ? 29 : 28;
+        return (m == 4 || m == 6 || m == 9 || m == 11) ? 30 : 31;
+    }
+
+    /**
+     * Turns byte ranges into shared Strings: a repeated student id is decoded once and
+     * the same String is returned for every later row.
+     */
+    public static class Interner {
+        private byte[][] keys = new byte[1024][];
+        private String[] values = new String[1024];
+        private int size;
+
+        public String intern(byte[] buf, int start, int len) {
+            int h = hash(buf, start, len);
+            int mask = keys.length - 1;
+            for (int i = h & mask; ; i = (i + 1) & mask) {
+                byte[] k = keys[i];
+                if (k == null) {
+                    String s = new String(buf, start, len, StandardCharsets.UTF_8);
+                    keys[i] = Arrays.copyOfRange(buf, start, start + len);
+                    values[i] = s;
+                    if (++size * 2 > keys.length) grow();
+                    return s;
+                }
+                if (k.length == len && Arrays.equals(k, 0, len, buf, start, start + len)) return values[i];
+            }
+        }
+
+        private static int hash(byte[] buf, int start, int len) {
+            int h = 1;
+            for (int i = start; i < start + len; i++) h = 31 * h + buf[i];
+            return h ^ (h >>> 16);
+        }
+
+        private void grow() {
+            byte[][] oldKeys = keys;
+            String[] oldValues = values;
+            keys = new byte[oldKeys.length * 2][];
+            values = new String[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldKeys[j] == null) continue;
+                int i = hash(oldKeys[j], 0, oldKeys[j].length) & mask;
+                while (keys[i] != null) i = (i + 1) & mask;
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+}
@@ -0,0 +1,330 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DataWatcher.java
+ * Watches students.csv, attendance.csv and attendance.journal for changes made by another
+ * terminal or a script, so the app can pick them up without a full Load All.
+ *
+ * For each file the watcher remembers the byte offset it has consumed and the last bytes
+ * before it. When students.csv or the journal grows and those bytes are unchanged, only the
+ * complete lines after the offset are read and handed to the listener as a delta; journal
+ * bytes this process appended or loaded itself (FileStorage.withoutOwnAppends) are left out.
+ * A file that shrank, was replaced (new inode) or changed before the offset is reported as
+ * rewritten, and the listener rebuilds from scratch. So is any change to attendance.csv by
+ * another writer, even an append: rows added at the end break the grouping by date that
+ * attendance.idx relies on, so the file has to be re-indexed. Rewrites made by this process
+ * (FileStorage.isOwnWrite) just move the baseline.
+ *
+ * The journal is read together with its generation under the journal lock. A new
+ * generation means a compaction moved the old journal aside, and the new one is read from
+ * the start, whatever inode it got. Records of another writer that were still unread in the
+ * old journal are not lost: the compaction folded them into attendance.csv, and a csv
+ * holding records this process had not seen is never taken as its own write, so it is
+ * reloaded (see FileStorage.compactJournal).
+ *
+ * Events are collected for a short quiet period so a burst of appends is read as one
+ * delta. A file whose check fails is tried again after the next quiet period, and after
+ * MAX_ATTEMPTS failures reported as rewritten. The listener is called on the watcher
+ * thread. Remote mode has no watcher; the server owns the files.
+ */
+public class DataWatcher implements Closeable {
+
+    private static final long QUIET_MS = 150;
+    private static final int TAIL_BYTES = 64;
+    private static final int MAX_ATTEMPTS = 3;
+
+    public interface Listener {
+        void studentsAppended(List<Student> students);
+
+        /**
+         * Records appended to attendance.journal, as FileStorage.loadJournal returns them. They
+         * count as applied once this returns.
+         */
+        void journalAppended(List<String[]> records);
+
+        /** students.csv or attendance.csv was truncated or replaced. */
+        void rewritten(String file);
+    }
+
+    private static class Tracked {
+        final Path path;
+        final boolean journal;
+        Object key;   // file identity (inode); null if the file did not exist
+        long offset;  // bytes consumed
+        byte[] tail = new byte[0]; // the bytes just before offset
+        long generation; // the journal's generation the offset belongs to
+
+        Tracked(Path path) {
+            this.path = path;
+            journal = path.getFileName().toString().equals(FileStorage.JOURNAL_FILE);
+        }
+    }
+
+    private final Path dir;
+    private final Listener listener;
+    private final Map<String, Tracked> tracked = new LinkedHashMap<>();
+    private final WatchService watch;
+    private final Thread thread;
+    private volatile boolean closed;
+
+    /**
+     * Take the current state of the files in dir as the baseline. Changes made from now on
+     * are queued and delivered once start() is called, so the caller can load the files in
+     * between without missing any.
+     */
+    public DataWatcher(File dir, Listener listener) throws IOException {
+        this.dir = dir.toPath().toAbsolutePath();
+        this.listener = listener;
+        for (String name : new String[]{FileStorage.STUDENT_FILE, FileStorage.ATTENDANCE_FILE, FileStorage.JOURNAL_FILE}) {
+            Tracked t = new Tracked(this.dir.resolve(name));
+            baseline(t);
+            tracked.put(name, t);
+        }
+        watch = FileSystems.getDefault().newWatchService();
+        this.dir.register(watch, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        thread = new Thread(this::run, "data-watcher");
+        thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    private void run() {
+        Set<String> dirty = new LinkedHashSet<>();
+        Map<String, Integer> failures = new HashMap<>();
+        while (!closed) {
+            try {
+                WatchKey key = dirty.isEmpty() ? watch.take() : watch.poll(QUIET_MS, TimeUnit.MILLISECONDS);
+                if (key == null) {
+                    // quiet for a while: read what changed; a file that fails stays dirty
+                    for (Iterator<String> it = dirty.iterator(); it.hasNext(); ) {
+                        String name = it.next();
+                        if (checkOrGiveUp(name, failures)) it.remove();
+                    }
+                    continue;
+                }
+                for (WatchEvent<?> e : key.pollEvents()) {
+                    if (e.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        dirty.addAll(tracked.keySet());
+                    } else {
+                        String name = e.context().toString();
+                        if (tracked.containsKey(name)) dirty.add(name);
+                    }
+                }
+                key.reset();
+            } catch (InterruptedException | ClosedWatchServiceException ex) {
+                return;
+            } catch (Exception ex) {
+                // the files still queued are checked after the next quiet period
+                Metrics.error("watch", ex);
+            }
+        }
+    }
+
+    /**
+     * Check one file; true when done with it. After MAX_ATTEMPTS failures in a row the
+     * file is reported as rewritten, so the listener reloads instead of missing changes.
+     */
+    private boolean checkOrGiveUp(String name, Map<String, Integer> failures) throws IOException {
+        try {
+            check(name);
+            failures.remove(name);
+            return true;
+        } catch (IOException | RuntimeException ex) {
+            Metrics.error("watch", ex);
+            int n = failures.merge(name, 1, Integer::sum);
+            if (n < MAX_ATTEMPTS) return false;
+            failures.remove(name);
+            Tracked t = tracked.get(name);
+            try {
+                baseline(t);
+            } catch (IOException again) {
+                reset(t);
+            }
+            listener.rewritten(name);
+            return true;
+        }
+    }
+
+    private void check(String name) throws IOException {
+        Tracked t = tracked.get(name);
+        if (t.journal) {
+            checkJournal(t);
+            return;
+        }
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(t.path, BasicFileAttributes.class);
+        } catch (NoSuchFileException ex) {
+            attrs = null;
+        }
+        if (attrs == null) {
+            boolean existed = t.key != null || t.offset > 0;
+            reset(t);
+            if (existed) listener.rewritten(name);
+            return;
+        }
+        if (FileStorage.isOwnWrite(t.path.toFile())) {
+            baseline(t);
+            return;
+        }
+        long size = attrs.size();
+        boolean replaced = t.key != null && !t.key.equals(attrs.fileKey());
+        if (name.equals(FileStorage.ATTENDANCE_FILE)) {
+            // even appended rows need a re-index (they break the grouping by date): reload
+            if (replaced || size != t.offset || !tailMatches(t)) {
+                baseline(t);
+                listener.rewritten(name);
+            }
+            return;
+        }
+        if (replaced || size < t.offset || !tailMatches(t)) {
+            baseline(t);
+            listener.rewritten(name);
+            return;
+        }
+        t.key = attrs.fileKey();
+        if (size <= t.offset) return;
+        try (Metrics.Span span = Metrics.span("watch.delta")) {
+            byte[] delta = read(t, size);
+            if (delta.length == 0) {
+                span.finish();
+                return;
+            }
+            t.offset += delta.length;
+            t.tail = Arrays.copyOfRange(delta, Math.max(0, delta.length - TAIL_BYTES), delta.length);
+            int rows = dispatch(name, delta);
+            span.finish(rows, delta.length);
+        }
+    }
+
+    /**
+     * Read what the journal gained since the last check. The listener is called after the
+     * journal lock is let go, since it takes the AttendanceJournal's lock, which is held
+     * around appends.
+     */
+    private void checkJournal(Tracked t) throws IOException {
+        File dirFile = dir.toFile();
+        long[] start = new long[2]; // offset read from, generation
+        byte[] delta = FileStorage.locked(dirFile, FileStorage.JOURNAL_LOCK_FILE, () -> {
+            long gen = FileStorage.journalGeneration(dirFile);
+            long size = t.path.toFile().length();
+            if (gen != t.generation) {
+                // moved aside since the last check; the live journal is a new file
+                reset(t);
+                t.generation = gen;
+            } else if (size < t.offset) {
+                // cut short by someone else within a generation: what we read is unreliable
+                return null;
+            }
+            start[0] = t.offset;
+            start[1] = gen;
+            if (size <= t.offset) return new byte[0];
+            byte[] read = read(t, size);
+            t.offset += read.length;
+            return read;
+        });
+        if (delta == null) {
+            baseline(t);
+            listener.rewritten(FileStorage.JOURNAL_FILE);
+            return;
+        }
+        if (delta.length == 0) return;
+        try (Metrics.Span span = Metrics.span("watch.delta")) {
+            long end = start[0] + delta.length;
+            delta = FileStorage.withoutOwnAppends(t.path.toFile(), start[1], start[0], delta);
+            int rows = dispatch(FileStorage.JOURNAL_FILE, delta);
+            // in memory now, so a compaction folding them in need not reload
+            FileStorage.noteAppliedAppend(t.path.toFile(), start[1], start[0], end);
+            span.finish(rows, delta.length);
+        }
+    }
+
+    private int dispatch(String name, byte[] delta) throws IOException {
+        if (name.equals(FileStorage.STUDENT_FILE)) {
+            List<Student> students = new ArrayList<>();
+            CsvScanner.scanStudents(new ByteArrayInputStream(delta), (buf, idStart, idLen, nameStart, nameLen) ->
+                    students.add(new Student(new String(buf, idStart, idLen, StandardCharsets.UTF_8),
+                            new String(buf, nameStart, nameLen, StandardCharsets.UTF_8))));
+            if (!students.isEmpty()) listener.studentsAppended(students);
+            return students.size();
+        }
+        List<String[]> records = new ArrayList<>();
+        FileStorage.parseJournal(delta, records);
+        if (!records.isEmpty()) listener.journalAppended(records);
+        return records.size();
+    }
+
+    /**
+     * The complete lines between the offset and size; a line still being written is left
+     * for the next event.
+     */
+    private static byte[] read(Tracked t, long size) throws IOException {
+        byte[] buf = new byte[(int) Math.min(Integer.MAX_VALUE - 8, size - t.offset)];
+        try (RandomAccessFile raf = new RandomAccessFile(t.path.toFile(), "r")) {
+            raf.seek(t.offset);
+            raf.readFully(buf);
+        }
+        int end = buf.length;
+        while (end > 0 && buf[end - 1] != '\n') end--;
+        return end == buf.length ? buf : Arrays.copyOf(buf, end);
+    }
+
+    private static boolean tailMatches(Tracked t) throws IOException {
+        if (t.tail.length == 0) return true;
+        byte[] now = new byte[t.tail.length];
+        try (RandomAccessFile raf = new RandomAccessFile(t.path.toFile(), "r")) {
+            if (raf.length() < t.offset) return false;
+            raf.seek(t.offset - now.length);
+            raf.readFully(now);
+        }
+        return Arrays.equals(now, t.tail);
+    }
+
+    private void baseline(Tracked t) throws IOException {
+        File f = t.path.toFile();
+        if (t.journal) {
+            // the journal's offset is only meaningful with the generation read with it
+            File dirFile = dir.toFile();
+            FileStorage.locked(dirFile, FileStorage.JOURNAL_LOCK_FILE, () -> {
+                reset(t);
+                t.generation = FileStorage.journalGeneration(dirFile);
+                t.offset = f.length();
+                return null;
+            });
+            return;
+        }
+        if (!f.exists()) {
+            reset(t);
+            return;
+        }
+        t.key = Files.readAttributes(t.path, BasicFileAttributes.class).fileKey();
+        t.offset = f.length();
+        int n = (int) Math.min(TAIL_BYTES, t.offset);
+        t.tail = new byte[n];
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            raf.seek(t.offset - n);
+            raf.readFully(t.tail);
+        }
+    }
+
+    private static void reset(Tracked t) {
+        t.key = null;
+        t.offset = 0;
+        t.tail = new byte[0];
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        watch.close();
+        thread.interrupt();
+    }
+}
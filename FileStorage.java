@@ -1,25 +1,133 @@
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 import java.util.*;
-import javax.swing.table.DefaultTableModel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import javax.swing.table.TableModel;
 
 /**
  * FileStorage.java
  * Handles reading/writing student and attendance CSV files.
  * Also creates default sample data if files are missing so app starts preloaded.
+ * Every file operation is timed through Metrics with the rows and bytes it handled.
+ *
+ * The data files live in a data directory passed to each call: the working directory for a
+ * single set of files, or one shard's directory when the data is split (see ShardManifest).
+ * Directories are independent, so different shards can be read and written concurrently.
+ *
+ * Several processes may share one directory (terminals on a network drive, a batch command
+ * next to the app). Appends to attendance.journal and the load-time journal repair are made
+ * under an exclusive lock on attendance.lock, so no process ever sees another's half
+ * written line as torn. Rewrites of attendance.csv (compaction, migration) hold a second
+ * lock, attendance.compact.lock, so only one process rewrites a directory at a time.
  */
 public class FileStorage {
 
-    private static final String STUDENT_FILE = "students.csv";
-    private static final String ATTENDANCE_FILE = "attendance.csv";
-    // attendance.csv format: date(YYYY-MM-DD),studentId,status(P/A)
+    static final String STUDENT_FILE = "students.csv";
+    static final String ATTENDANCE_FILE = "attendance.csv";
+    static final String JOURNAL_FILE = "attendance.journal";
+    private static final String ROTATED_JOURNAL_FILE = "attendance.journal.old";
+    private static final String JOURNAL_GEN_FILE = "attendance.journal.gen";
+    private static final String INDEX_FILE = "attendance.idx";
+    private static final String BINARY_FILE = "attendance.bin";
+    private static final String SNAPSHOT_FILE = "attendance.snap";
+    static final String JOURNAL_LOCK_FILE = "attendance.lock";
+    private static final String COMPACT_LOCK_FILE = "attendance.compact.lock";
+    // held while attendance.csv and attendance.idx are swapped in together, never around
+    // anything else, so a lookup can wait it out without waiting for a whole compaction
+    private static final String INDEX_LOCK_FILE = "attendance.idx.lock";
+    // attendance.csv format: date(YYYY-MM-DD),studentId,status(P/A), kept grouped and sorted by date
+    // attendance.journal format: M,date,studentId,status (mark), D,date,studentId (delete)
+    //   or T,studentId (tombstone: every earlier record of the student is deleted)
+    // attendance.idx format: first line "#size,lastModified,crc32" of attendance.csv as written,
+    //   then date,offset,length
+    // attendance.bin (optional): columnar copy of attendance.csv, see AttendanceBinary
+    // attendance.snap: per-student counts and date list of attendance.csv, see AggregateSnapshot
+    // attendance.journal.gen: how many times the live journal has been moved aside, so a reader
+    //   can tell a new journal from the old one even when it gets the old file's inode
+
+    // data directory -> date -> {offset, length} of that date's rows in its attendance.csv;
+    // a directory has no entry until its first lookup
+    private static final Map<File, DateIndex> dateIndexes = new ConcurrentHashMap<>();
+
+    // data directory -> its mapped attendance.bin, in binary mode; checked against
+    // attendance.csv before each use
+    private static final Map<File, AttendanceBinary.Columns> binaryColumns = new ConcurrentHashMap<>();
+
+    // absolute file path -> {size, lastModified} right after this process last rewrote it (or,
+    // for attendance.csv, when it loaded it), so the DataWatcher can tell our own rewrites
+    // from another writer's
+    private static final Map<String, long[]> ownWrites = new ConcurrentHashMap<>();
+
+    // journal path -> {journal generation, byte ranges [start, end) of that journal this
+    // process appended or loaded itself}, so the DataWatcher can skip records already in
+    // memory; dropped when the journal is rotated
+    private static final Map<String, OwnAppends> ownAppends = new ConcurrentHashMap<>();
+
+    // data directory -> the journal records parsed so far and the journal generation they
+    // were read in, so a date lookup reads only what was appended since the last one
+    private static final Map<File, JournalTail> journalTails = new ConcurrentHashMap<>();
+
+    // lock file path -> the in-process side of that lock. A FileLock is held per process, so
+    // threads of this process take this first; a thread already holding it just runs.
+    private static final Map<String, ReentrantLock> fileLocks = new ConcurrentHashMap<>();
+
+    interface LockedAction<T> {
+        T run() throws IOException;
+    }
+
+    /**
+     * The working directory, where the data files live when they are not sharded.
+     */
+    public static File defaultDir() {
+        return new File(".");
+    }
+
+    private static File file(File dir, String name) {
+        return new File(dir, name);
+    }
+
+    private static File key(File dir) {
+        return dir.getAbsoluteFile().toPath().normalize().toFile();
+    }
+
+    /**
+     * Run action holding the exclusive lock on dir/lockName, against other processes and
+     * other threads of this one. Blocks until the lock is free.
+     */
+    static <T> T locked(File dir, String lockName, LockedAction<T> action) throws IOException {
+        File f = file(dir, lockName);
+        ReentrantLock lock = fileLocks.computeIfAbsent(key(f).getPath(), k -> new ReentrantLock());
+        lock.lock();
+        try {
+            if (lock.getHoldCount() > 1) return action.run();
+            try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                FileLock fl = ch.lock();
+                try {
+                    return action.run();
+                } finally {
+                    fl.release();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
 
     /**
      * Create default sample data files if they do not exist.
      * This ensures the app has preloaded students and attendance on first run.
      */
-    public static void createDefaultDataIfMissing() throws IOException {
-        File studentFile = new File(STUDENT_FILE);
-        File attendanceFile = new File(ATTENDANCE_FILE);
+    public static void createDefaultDataIfMissing(File dir) throws IOException {
+        File studentFile = file(dir, STUDENT_FILE);
+        File attendanceFile = file(dir, ATTENDANCE_FILE);
 
         if (!studentFile.exists()) {
             try (PrintWriter pw = new PrintWriter(new FileWriter(studentFile))) {
@@ -75,67 +183,807 @@ public class FileStorage {
         }
     }
 
-    public static List<Student> loadStudents() throws IOException {
+    public static List<Student> loadStudents(File dir) throws IOException {
         List<Student> list = new ArrayList<>();
-        File f = new File(STUDENT_FILE);
+        File f = file(dir, STUDENT_FILE);
         if (!f.exists()) return list;
-        try (BufferedReader br = new BufferedReader(new FileReader(f))) {
-            String line;
-            while((line = br.readLine()) != null) {
-                if (line.trim().isEmpty()) continue;
-                String[] p = line.split(",", 2);
-                if (p.length == 2) {
-                    list.add(new Student(p[0].trim(), p[1].trim()));
+        try (Metrics.Span span = Metrics.span("load.students");
+             InputStream in = new FileInputStream(f)) {
+            CsvScanner.scanStudents(in, (buf, idStart, idLen, nameStart, nameLen) ->
+                    list.add(new Student(new String(buf, idStart, idLen, StandardCharsets.UTF_8),
+                            new String(buf, nameStart, nameLen, StandardCharsets.UTF_8))));
+            span.finish(list.size(), f.length());
+        }
+        return list;
+    }
+
+    public static void saveStudents(File dir, List<Student> students) throws IOException {
+        try (Metrics.Span span = Metrics.span("save.students")) {
+            try (PrintWriter pw = new PrintWriter(new FileWriter(file(dir, STUDENT_FILE)))) {
+                for (Student s : students) {
+                    pw.println(s.getId() + "," + s.getName());
                 }
             }
+            noteOwnWrite(file(dir, STUDENT_FILE));
+            span.finish(students.size(), file(dir, STUDENT_FILE).length());
+        }
+    }
+
+    public static void saveAttendance(File dir, List<String[]> records) throws IOException {
+        AttendanceStore store = new AttendanceStore();
+        store.addAll(records);
+        saveAttendance(dir, store.snapshot());
+    }
+
+    /**
+     * Write attendance.csv (with attendance.idx, attendance.snap and, in binary mode,
+     * attendance.bin) from records in the store's compact form.
+     */
+    public static void saveAttendance(File dir, AttendanceStore.Days days) throws IOException {
+        try (Metrics.Span span = Metrics.span("save.attendance")) {
+            long rows = locked(dir, COMPACT_LOCK_FILE, () -> writeAttendance(dir, days));
+            span.finish(rows, file(dir, ATTENDANCE_FILE).length());
         }
-        return list;
     }
 
-    public static void saveStudents(List<Student> students) throws IOException {
-        try (PrintWriter pw = new PrintWriter(new FileWriter(STUDENT_FILE))) {
-            for (Student s : students) {
-                pw.println(s.getId() + "," + s.getName());
+    private static long writeAttendance(File dir, AttendanceStore.Days days) throws IOException {
+        // rows are grouped by date so attendance.idx can point at each day's block;
+        // written to a temp file, synced, then moved over, so a crash never leaves half a file.
+        // Each line is encoded from the date's and the id's bytes, so no String per row is made.
+        int students = days.studentCount();
+        byte[][] ids = new byte[students][];
+        int[][] counts = new int[students][];
+        Map<String, long[]> index = new LinkedHashMap<>();
+        byte[] newline = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+        long rows = 0;
+        File csv = file(dir, ATTENDANCE_FILE);
+        File tmp = file(dir, ATTENDANCE_FILE + ".tmp");
+        // hashed on the way out, for attendance.idx and attendance.snap to agree on
+        CRC32 crc = new CRC32();
+        try (FileOutputStream fos = new FileOutputStream(tmp);
+             OutputStream out = new BufferedOutputStream(new CheckedOutputStream(fos, crc), 1 << 16)) {
+            long offset = 0;
+            for (int d = 0; d < days.size(); d++) {
+                byte[] date = days.date(d).getBytes(StandardCharsets.UTF_8);
+                byte[] statuses = days.statuses(d);
+                int n = Math.min(statuses.length, students);
+                long start = offset;
+                for (int s = 0; s < n; s++) {
+                    byte status = statuses[s];
+                    if (status == 0) continue;
+                    if (ids[s] == null) {
+                        ids[s] = days.studentId(s).getBytes(StandardCharsets.UTF_8);
+                        counts[s] = new int[2];
+                    }
+                    out.write(date);
+                    out.write(',');
+                    out.write(ids[s]);
+                    out.write(',');
+                    out.write(status);
+                    out.write(newline);
+                    offset += date.length + ids[s].length + 3 + newline.length;
+                    if (AttendanceStore.Days.isPresent(status)) counts[s][0]++;
+                    counts[s][1]++;
+                    rows++;
+                }
+                if (offset > start) index.put(days.date(d), new long[]{start, offset - start});
             }
+            out.flush();
+            fos.getFD().sync();
+        }
+        locked(dir, INDEX_LOCK_FILE, () -> {
+            Files.move(tmp.toPath(), csv.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            noteOwnWrite(csv);
+            saveIndex(dir, index, crc.getValue());
+            return null;
+        });
+        Map<String, int[]> byId = new HashMap<>();
+        for (int s = 0; s < students; s++) {
+            if (counts[s] != null) byId.put(days.studentId(s), counts[s]);
+        }
+        new AggregateSnapshot(byId, new ArrayList<>(index.keySet()))
+                .write(csv, crc.getValue(), file(dir, SNAPSHOT_FILE));
+        if (isBinaryEnabled(dir)) {
+            binaryColumns.remove(key(dir));
+            AttendanceBinary.write(days, csv, file(dir, BINARY_FILE));
         }
+        return rows;
+    }
+
+    /**
+     * Binary mode is on once attendance.bin exists; every snapshot write then refreshes it too,
+     * and date lookups and full reads use its mapped columns instead of parsing the csv.
+     */
+    public static boolean isBinaryEnabled(File dir) {
+        return file(dir, BINARY_FILE).exists();
+    }
+
+    /**
+     * Turn on binary mode by converting the current attendance.csv.
+     */
+    public static void enableBinary(File dir) throws IOException {
+        migrateAttendanceIfNeeded(dir);
+        File csv = file(dir, ATTENDANCE_FILE);
+        if (!csv.exists()) saveAttendance(dir, new ArrayList<>());
+        binaryColumns.remove(key(dir));
+        AttendanceBinary.csvToBinary(csv, file(dir, BINARY_FILE));
+    }
+
+    /**
+     * Mapped columns of attendance.bin, or null when binary mode is off or the file is stale.
+     * The mapping is kept for the next call while attendance.csv stays the same.
+     */
+    public static AttendanceBinary.Columns loadAttendanceColumns(File dir) throws IOException {
+        File csv = file(dir, ATTENDANCE_FILE);
+        if (!isBinaryEnabled(dir) || !csv.exists()) return null;
+        AttendanceBinary.Columns cols = binaryColumns.get(key(dir));
+        if (cols != null && cols.matches(csv)) return cols;
+        cols = AttendanceBinary.read(file(dir, BINARY_FILE), csv);
+        if (cols != null) binaryColumns.put(key(dir), cols);
+        else binaryColumns.remove(key(dir));
+        return cols;
     }
 
-    public static void saveAttendance(List<String[]> records) throws IOException {
-        // records: each is {date, studentId, status}
-        try (PrintWriter pw = new PrintWriter(new FileWriter(ATTENDANCE_FILE))) {
-            for (String[] r : records) {
-                pw.println(r[0] + "," + r[1] + "," + r[2]);
+    private static void saveIndex(File dir, Map<String, long[]> index, long crc) throws IOException {
+        File csv = file(dir, ATTENDANCE_FILE);
+        DateIndex idx = new DateIndex(csv.length(), csv.lastModified(), crc, index);
+        File tmp = file(dir, INDEX_FILE + ".tmp");
+        try (PrintWriter pw = new PrintWriter(new FileWriter(tmp))) {
+            pw.println("#" + idx.size + "," + idx.lastModified + "," + idx.crc);
+            for (Map.Entry<String, long[]> e : index.entrySet()) {
+                pw.println(e.getKey() + "," + e.getValue()[0] + "," + e.getValue()[1]);
             }
         }
+        Files.move(tmp.toPath(), file(dir, INDEX_FILE).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        dateIndexes.put(key(dir), idx);
     }
 
-    public static List<String[]> loadAttendanceAll() throws IOException {
-        List<String[]> list = new ArrayList<>();
-        File f = new File(ATTENDANCE_FILE);
-        if (!f.exists()) return list;
+    /**
+     * Load attendance.idx if it still describes the current attendance.csv, else null.
+     */
+    private static DateIndex loadIndex(File dir) throws IOException {
+        File csv = file(dir, ATTENDANCE_FILE);
+        DateIndex cached = dateIndexes.get(key(dir));
+        if (cached != null && cached.matches(csv)) return cached;
+        File f = file(dir, INDEX_FILE);
+        if (!f.exists()) return null;
+        Map<String, long[]> index = new LinkedHashMap<>();
+        long size, lastModified, crc;
         try (BufferedReader br = new BufferedReader(new FileReader(f))) {
+            String header = br.readLine();
+            if (header == null || !header.startsWith("#")) return null;
+            String[] h = header.substring(1).split(",");
+            // an index from before the crc was recorded is rebuilt like a stale one
+            if (h.length != 3) return null;
+            size = Long.parseLong(h[0]);
+            lastModified = Long.parseLong(h[1]);
+            crc = Long.parseLong(h[2]);
             String line;
             while ((line = br.readLine()) != null) {
-                if (line.trim().isEmpty()) continue;
-                String[] p = line.split(",", 3);
-                if (p.length == 3) list.add(new String[]{p[0].trim(), p[1].trim(), p[2].trim()});
+                String[] p = line.split(",");
+                if (p.length == 3) index.put(p[0], new long[]{Long.parseLong(p[1]), Long.parseLong(p[2])});
             }
+        } catch (NumberFormatException ex) {
+            return null;
         }
+        DateIndex idx = new DateIndex(size, lastModified, crc, index);
+        if (!idx.matches(csv)) return null;
+        dateIndexes.put(key(dir), idx);
+        return idx;
+    }
+
+    /**
+     * Rewrite attendance.csv grouped by date with a fresh attendance.idx when the index is
+     * missing or stale (an older attendance.csv, or one edited by hand). Called when the
+     * store is loaded, under the compaction lock so it never races a compaction's rewrite.
+     */
+    public static void migrateAttendanceIfNeeded(File dir) throws IOException {
+        File csv = file(dir, ATTENDANCE_FILE);
+        // in binary mode a lost attendance.csv is restored from attendance.bin
+        if (!csv.exists() && !isBinaryEnabled(dir)) return;
+        if (csv.exists() && loadIndex(dir) != null) return;
+        locked(dir, COMPACT_LOCK_FILE, () -> {
+            if (!csv.exists()) {
+                if (!isBinaryEnabled(dir)) return null;
+                AttendanceBinary.binaryToCsv(file(dir, BINARY_FILE), csv);
+            }
+            // another process may have migrated it while we waited
+            if (loadIndex(dir) != null) return null;
+            AttendanceStore all = new AttendanceStore();
+            forEachAttendance(dir, all::mark);
+            saveAttendance(dir, all.snapshot());
+            return null;
+        });
+    }
+
+    /**
+     * Delete attendance.idx and attendance.snap so the next load rebuilds them from
+     * attendance.csv and the journal (the batch recompute command).
+     */
+    public static void deleteDerivedFiles(File dir) throws IOException {
+        dateIndexes.remove(key(dir));
+        Files.deleteIfExists(file(dir, INDEX_FILE).toPath());
+        Files.deleteIfExists(file(dir, SNAPSHOT_FILE).toPath());
+    }
+
+    private static void noteOwnWrite(File f) {
+        ownWrites.put(f.getAbsoluteFile().toPath().normalize().toString(), new long[]{f.length(), f.lastModified()});
+    }
+
+    /**
+     * True if the file is exactly as this process last rewrote it.
+     */
+    public static boolean isOwnWrite(File f) {
+        long[] w = ownWrites.get(f.getAbsoluteFile().toPath().normalize().toString());
+        return w != null && w[0] == f.length() && w[1] == f.lastModified();
+    }
+
+    /**
+     * Remember attendance.csv as it is about to be loaded, so a change by another writer from
+     * now on is not taken for ours (see compactJournal).
+     */
+    public static void noteAttendanceLoaded(File dir) {
+        File csv = file(dir, ATTENDANCE_FILE);
+        if (csv.exists()) noteOwnWrite(csv);
+    }
+
+    private static class OwnAppends {
+        final long generation;
+        // sorted by start, neither overlapping nor touching
+        final List<long[]> ranges = new ArrayList<>();
+
+        OwnAppends(long generation) {
+            this.generation = generation;
+        }
+
+        synchronized void add(long start, long end) {
+            int i = 0;
+            while (i < ranges.size() && ranges.get(i)[1] < start) i++;
+            // merge every range that overlaps or touches [start, end)
+            while (i < ranges.size() && ranges.get(i)[0] <= end) {
+                long[] r = ranges.remove(i);
+                start = Math.min(start, r[0]);
+                end = Math.max(end, r[1]);
+            }
+            ranges.add(i, new long[]{start, end});
+        }
+    }
+
+    // generation is the one read, under the journal lock, with the bytes
+    private static void noteOwnAppend(File journal, long generation, long start, long end) {
+        if (end <= start) return;
+        ownAppends.compute(journal.getAbsoluteFile().toPath().normalize().toString(), (k, own) -> {
+            if (own == null || own.generation < generation) own = new OwnAppends(generation);
+            // a note for a journal already rotated away is of no use
+            if (own.generation == generation) own.add(start, end);
+            return own;
+        });
+    }
+
+    /**
+     * Note journal bytes another writer appended as applied to this process's memory (the
+     * DataWatcher passed them on), so a compaction folding them in does not force a reload.
+     */
+    public static void noteAppliedAppend(File journal, long generation, long start, long end) {
+        noteOwnAppend(journal, generation, start, end);
+    }
+
+    /**
+     * The bytes of data, read from journal at offset, that this process did not append or
+     * load itself. generation is the journal generation it was read in.
+     */
+    public static byte[] withoutOwnAppends(File journal, long generation, long offset, byte[] data) {
+        OwnAppends own = ownAppends.get(journal.getAbsoluteFile().toPath().normalize().toString());
+        if (own == null || own.generation != generation) return data;
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length);
+        long pos = offset, end = offset + data.length;
+        synchronized (own) {
+            for (long[] r : own.ranges) {
+                if (r[1] <= pos || r[0] >= end) continue;
+                if (r[0] > pos) out.write(data, (int) (pos - offset), (int) (r[0] - pos));
+                pos = Math.max(pos, r[1]);
+            }
+        }
+        if (pos < end) out.write(data, (int) (pos - offset), (int) (end - pos));
+        return out.size() == data.length ? data : out.toByteArray();
+    }
+
+    private static class DateIndex {
+        final long size;
+        final long lastModified;
+        final long crc; // of attendance.csv, taken as it was written
+        final Map<String, long[]> offsets;
+
+        DateIndex(long size, long lastModified, long crc, Map<String, long[]> offsets) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.crc = crc;
+            this.offsets = offsets;
+        }
+
+        boolean matches(File csv) {
+            return csv.length() == size && csv.lastModified() == lastModified;
+        }
+    }
+
+    /**
+     * Append journal records to the directory's attendance.journal.
+     * Each record is {"M", date, studentId, status}, {"D", date, studentId} or {"T", studentId}.
+     */
+    public static void appendJournal(File dir, List<String[]> records, boolean fsync) throws IOException {
+        if (records.isEmpty()) return;
+        StringBuilder sb = new StringBuilder();
+        for (String[] r : records) {
+            sb.append(String.join(",", r)).append('\n');
+        }
+        byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+        try (Metrics.Span span = Metrics.span("journal.append")) {
+            File journal = file(dir, JOURNAL_FILE);
+            locked(dir, JOURNAL_LOCK_FILE, () -> {
+                long start = journal.length();
+                try (FileOutputStream out = new FileOutputStream(journal, true)) {
+                    // under the lock no other writer is mid-line, so an unterminated last line
+                    // is from one that died after we loaded; end it rather than glue onto it
+                    if (!endsWithNewline(journal)) out.write('\n');
+                    out.write(bytes);
+                    if (fsync) out.getFD().sync();
+                }
+                noteOwnAppend(journal, journalGeneration(dir), start, journal.length());
+                return null;
+            });
+            span.finish(records.size(), bytes.length);
+        }
+    }
+
+    private static boolean endsWithNewline(File f) throws IOException {
+        if (f.length() == 0) return true;
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            raf.seek(raf.length() - 1);
+            return raf.read() == '\n';
+        }
+    }
+
+    /**
+     * Cut off a last journal line left without its newline by a crash in the middle of an
+     * append. Called when the store is loaded, under the journal lock, so a line another
+     * process is still writing is never mistaken for a torn one.
+     */
+    public static void repairJournal(File dir) throws IOException {
+        File f = file(dir, JOURNAL_FILE);
+        if (!f.exists()) return;
+        locked(dir, JOURNAL_LOCK_FILE, () -> {
+            if (endsWithNewline(f)) return null;
+            try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+                long pos = raf.length() - 1;
+                while (pos > 0) {
+                    raf.seek(pos - 1);
+                    if (raf.read() == '\n') break;
+                    pos--;
+                }
+                raf.setLength(pos);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Journal records in write order: a leftover rotated journal first (from a compaction
+     * that did not finish), then the live journal. Read under the journal lock, and the live
+     * journal's bytes are noted as this process's own, since they are now in its memory.
+     */
+    public static List<String[]> loadJournal(File dir) throws IOException {
+        List<String[]> list = new ArrayList<>();
+        try (Metrics.Span span = Metrics.span("load.journal")) {
+            File rotated = file(dir, ROTATED_JOURNAL_FILE);
+            File live = file(dir, JOURNAL_FILE);
+            locked(dir, JOURNAL_LOCK_FILE, () -> {
+                readJournal(rotated, list);
+                readJournal(live, list);
+                noteOwnAppend(live, journalGeneration(dir), 0, live.length());
+                return null;
+            });
+            span.finish(list.size(), rotated.length() + live.length());
+        }
+        return list;
+    }
+
+    private static void readJournal(File f, List<String[]> list) throws IOException {
+        if (!f.exists()) return;
+        try {
+            parseJournal(Files.readAllBytes(f.toPath()), list);
+        } catch (NoSuchFileException ex) {
+            // a compaction finished and deleted it meanwhile; its records are in the csv
+        }
+    }
+
+    /**
+     * Parse journal records from raw bytes; only lines ending in a newline are complete,
+     * so a torn last line is ignored.
+     */
+    public static void parseJournal(byte[] data, List<String[]> list) {
+        int end = data.length;
+        while (end > 0 && data[end - 1] != '\n') end--;
+        for (String line : new String(data, 0, end, StandardCharsets.UTF_8).split("\n")) {
+            if (line.trim().isEmpty()) continue;
+            String[] p = line.split(",", 4);
+            if (p[0].equals("M") && p.length == 4 && !p[3].trim().isEmpty()) {
+                list.add(new String[]{"M", p[1].trim(), p[2].trim(), p[3].trim()});
+            } else if (p[0].equals("D") && p.length >= 3) {
+                list.add(new String[]{"D", p[1].trim(), p[2].trim()});
+            } else if (p[0].equals("T") && p.length >= 2 && !p[1].trim().isEmpty()) {
+                list.add(new String[]{"T", p[1].trim()});
+            }
+        }
+    }
+
+    public static long journalSize(File dir) {
+        return file(dir, JOURNAL_FILE).length();
+    }
+
+    /**
+     * The journal generation of dir (0 before the first rotation). It only changes under the
+     * journal lock, so read it under that lock to pair it with the journal's contents.
+     */
+    public static long journalGeneration(File dir) throws IOException {
+        File f = file(dir, JOURNAL_GEN_FILE);
+        try {
+            return Long.parseLong(new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8).trim());
+        } catch (NoSuchFileException ex) {
+            return 0;
+        } catch (NumberFormatException ex) {
+            throw new IOException(JOURNAL_GEN_FILE + " is damaged", ex);
+        }
+    }
+
+    private static void bumpJournalGeneration(File dir) throws IOException {
+        long next = journalGeneration(dir) + 1;
+        Path tmp = file(dir, JOURNAL_GEN_FILE + ".tmp").toPath();
+        Files.write(tmp, Long.toString(next).getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, file(dir, JOURNAL_GEN_FILE).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Move the live journal aside so new appends start a fresh file while a compaction
+     * writes the snapshot, and bump the journal generation. Returns false if there was
+     * nothing to rotate.
+     */
+    public static boolean rotateJournal(File dir) throws IOException {
+        File f = file(dir, JOURNAL_FILE);
+        if (!f.exists()) return false;
+        Path rotated = file(dir, ROTATED_JOURNAL_FILE).toPath();
+        // not in the middle of anyone's append
+        return locked(dir, JOURNAL_LOCK_FILE, () -> {
+            if (!f.exists()) return false;
+            // a new generation starts with no appends of ours
+            ownAppends.remove(f.getAbsoluteFile().toPath().normalize().toString());
+            bumpJournalGeneration(dir);
+            if (Files.exists(rotated)) {
+                // an earlier compaction never finished; keep its records ahead of the new ones
+                Files.write(rotated, Files.readAllBytes(f.toPath()), StandardOpenOption.APPEND);
+                Files.delete(f.toPath());
+            } else {
+                Files.move(f.toPath(), rotated);
+            }
+            return true;
+        });
+    }
+
+    public static void deleteRotatedJournal(File dir) throws IOException {
+        Files.deleteIfExists(file(dir, ROTATED_JOURNAL_FILE).toPath());
+    }
+
+    /**
+     * Fold the journal into attendance.csv. The live journal is rotated first so appends can
+     * go on meanwhile. The new csv is built from the files on disk, the current csv plus the
+     * rotated journal, not from this process's memory, so records another process appended
+     * are kept when the rotated journal is deleted. Holds the compaction lock throughout.
+     * Returns false if there was no journal to fold.
+     *
+     * The new csv counts as this process's own write only if everything folded into it was
+     * already in its memory: the csv as it was loaded or last written here and journal bytes
+     * it appended or loaded. Otherwise (another writer's records, a leftover rotated journal)
+     * the DataWatcher sees a foreign rewrite and the data is reloaded, rather than losing
+     * records it had not read yet when the journal was moved aside.
+     */
+    public static boolean compactJournal(File dir) throws IOException {
+        return locked(dir, COMPACT_LOCK_FILE, () -> {
+            File csv = file(dir, ATTENDANCE_FILE);
+            File rotated = file(dir, ROTATED_JOURNAL_FILE);
+            boolean foreign = rotated.exists() || (csv.exists() && !isOwnWrite(csv));
+            boolean[] rotatedNow = new boolean[1];
+            foreign |= locked(dir, JOURNAL_LOCK_FILE, () -> {
+                boolean others = hasForeignAppends(dir);
+                rotatedNow[0] = rotateJournal(dir);
+                return others;
+            });
+            if (!rotatedNow[0] && !rotated.exists()) return false;
+            try (Metrics.Span span = Metrics.span("compact")) {
+                AttendanceStore merged = new AttendanceStore();
+                forEachAttendance(dir, merged::mark);
+                List<String[]> records = new ArrayList<>();
+                long bytes = rotated.length();
+                readJournal(rotated, records);
+                for (String[] r : records) merged.apply(r);
+                saveAttendance(dir, merged.snapshot());
+                if (foreign) ownWrites.remove(csv.getAbsoluteFile().toPath().normalize().toString());
+                deleteRotatedJournal(dir);
+                span.finish(records.size(), bytes);
+            }
+            return true;
+        });
+    }
+
+    // whether the live journal holds bytes this process did not append or load; call under
+    // the journal lock
+    private static boolean hasForeignAppends(File dir) throws IOException {
+        File journal = file(dir, JOURNAL_FILE);
+        long size = journal.length();
+        if (size == 0) return false;
+        OwnAppends own = ownAppends.get(journal.getAbsoluteFile().toPath().normalize().toString());
+        if (own == null || own.generation != journalGeneration(dir)) return true;
+        long covered = 0;
+        synchronized (own) {
+            for (long[] r : own.ranges) {
+                if (r[0] > covered) return true;
+                covered = Math.max(covered, r[1]);
+            }
+        }
+        return covered < size;
+    }
+
+    public static List<String[]> loadAttendanceAll(File dir) throws IOException {
+        List<String[]> list = new ArrayList<>();
+        forEachAttendance(dir, (date, id, status) -> list.add(new String[]{date, id, status}));
         return list;
     }
 
-    public static List<String[]> getAttendanceForDate(String date) throws IOException {
-        List<String[]> all = loadAttendanceAll();
+    public interface AttendanceConsumer {
+        void accept(String date, String studentId, String status);
+    }
+
+    /**
+     * Stream attendance.csv rows to a consumer without building a list. Dates, ids and
+     * statuses are shared Strings: each distinct value is decoded once per call.
+     * Rows with an unparseable date are skipped. In binary mode the rows come from the
+     * mapped attendance.bin while it matches the csv.
+     */
+    public static void forEachAttendance(File dir, AttendanceConsumer consumer) throws IOException {
+        File f = file(dir, ATTENDANCE_FILE);
+        if (!f.exists()) return;
+        AttendanceBinary.Columns cols = loadAttendanceColumns(dir);
+        if (cols != null) {
+            try (Metrics.Span span = Metrics.span("load.attendance.binary")) {
+                int lastDay = Integer.MIN_VALUE;
+                String lastDate = null;
+                for (int r = 0; r < cols.size(); r++) {
+                    if (cols.epochDay(r) != lastDay) {
+                        lastDay = cols.epochDay(r);
+                        lastDate = LocalDate.ofEpochDay(lastDay).toString();
+                    }
+                    consumer.accept(lastDate, cols.studentId(r), CsvScanner.statusString(cols.status(r)));
+                }
+                span.finish(cols.size(), 0);
+            }
+            return;
+        }
+        CsvScanner.Interner ids = new CsvScanner.Interner();
+        Map<Integer, String> dates = new HashMap<>();
+        long[] rows = new long[1];
+        try (Metrics.Span span = Metrics.span("load.attendance");
+             InputStream in = new FileInputStream(f)) {
+            CsvScanner.scanAttendance(in, new CsvScanner.AttendanceVisitor() {
+                // the file is grouped by date, so the previous row's date string usually matches
+                int lastDay = Integer.MIN_VALUE;
+                String lastDate;
+
+                public void record(int epochDay, byte[] buf, int idStart, int idLen, char status) {
+                    if (epochDay != lastDay) {
+                        lastDay = epochDay;
+                        lastDate = dates.computeIfAbsent(epochDay, d -> LocalDate.ofEpochDay(d).toString());
+                    }
+                    consumer.accept(lastDate, ids.intern(buf, idStart, idLen), CsvScanner.statusString(status));
+                    rows[0]++;
+                }
+            });
+            span.finish(rows[0], f.length());
+        }
+    }
+
+    /**
+     * Aggregates saved with the current attendance.csv, or null if there are none that match it.
+     * The snapshot is checked against the csv's size and mtime and the crc attendance.idx
+     * recorded when the csv was written, so the csv itself is not read.
+     */
+    public static AggregateSnapshot loadAggregates(File dir) throws IOException {
+        try (Metrics.Span span = Metrics.span("load.snapshot")) {
+            File f = file(dir, SNAPSHOT_FILE);
+            DateIndex idx = loadIndex(dir);
+            AggregateSnapshot snap = idx == null ? null : AggregateSnapshot.read(f, file(dir, ATTENDANCE_FILE), idx.crc);
+            span.finish(snap == null ? 0 : snap.counts.size(), f.length());
+            return snap;
+        }
+    }
+
+    /**
+     * Save aggregates computed from the current attendance.csv; skipped when it has no
+     * current index to take the csv's crc from.
+     */
+    public static void saveAggregates(File dir, AggregateSnapshot snap) throws IOException {
+        DateIndex idx = loadIndex(dir);
+        if (idx != null) snap.write(file(dir, ATTENDANCE_FILE), idx.crc, file(dir, SNAPSHOT_FILE));
+    }
+
+    /**
+     * studentId -> status for one date as stored in attendance.csv (journal not applied):
+     * a seek to that day's block via attendance.idx and a read of just that block, or in
+     * binary mode a binary search of the mapped attendance.bin. Never rewrites the file: an
+     * index that no longer matches it once any rewrite in progress has finished (someone
+     * edited attendance.csv by hand since it was loaded) is an error, and the next load
+     * re-indexes.
+     */
+    public static Map<String, String> readSnapshotDay(File dir, String date) throws IOException {
+        Map<String, String> map = new LinkedHashMap<>();
+        AttendanceBinary.Columns cols = loadAttendanceColumns(dir);
+        if (cols != null) {
+            try (Metrics.Span span = Metrics.span("lookup.date.binary")) {
+                int day = (int) LocalDate.parse(date).toEpochDay();
+                for (int r = cols.firstRow(day); r < cols.size() && cols.epochDay(r) == day; r++) {
+                    map.put(cols.studentId(r), CsvScanner.statusString(cols.status(r)));
+                }
+                span.finish(map.size(), 0);
+            } catch (DateTimeParseException ex) {
+                // not a date, so no rows
+            }
+            return map;
+        }
+        try (Metrics.Span span = Metrics.span("lookup.date.disk")) {
+            byte[] buf = readIndexedDay(dir, date);
+            if (buf == null) {
+                // a rewrite swapped attendance.csv after its index was read: let it finish
+                // and look again
+                buf = locked(dir, INDEX_LOCK_FILE, () -> readIndexedDay(dir, date));
+                if (buf == null) {
+                    throw new IOException(ATTENDANCE_FILE + " changed since it was indexed; reload the data");
+                }
+            }
+            CsvScanner.scanAttendance(new ByteArrayInputStream(buf), (day, b, idStart, idLen, status) ->
+                    map.put(new String(b, idStart, idLen, StandardCharsets.UTF_8), CsvScanner.statusString(status)));
+            span.finish(map.size(), buf.length);
+        }
+        return map;
+    }
+
+    /**
+     * The bytes of a date's block of attendance.csv as attendance.idx places it (empty when
+     * the date has no rows or there is no csv), or null when the index does not describe the
+     * csv that was opened.
+     */
+    private static byte[] readIndexedDay(File dir, String date) throws IOException {
+        File csv = file(dir, ATTENDANCE_FILE);
+        if (!csv.exists()) return new byte[0];
+        DateIndex idx = loadIndex(dir);
+        if (idx == null) return null;
+        try (RandomAccessFile raf = new RandomAccessFile(csv, "r")) {
+            // the file opened is the indexed one only if the path still matches it afterwards
+            if (!idx.matches(csv)) return null;
+            long[] e = idx.offsets.get(date);
+            if (e == null) return new byte[0];
+            byte[] buf = new byte[(int) e[1]];
+            raf.seek(e[0]);
+            raf.readFully(buf);
+            return buf;
+        }
+    }
+
+    /**
+     * Records for one date: a seek to that day's block of attendance.csv via attendance.idx,
+     * with any newer journal records for the date applied on top.
+     */
+    public static List<String[]> getAttendanceForDate(File dir, String date) throws IOException {
+        Map<String, String> map = readSnapshotDay(dir, date);
+        JournalTail tail = journalTail(dir);
+        synchronized (tail) {
+            tail.readAppended();
+            for (String[] j : tail.records) {
+                if (j[0].equals("T")) {
+                    map.remove(j[1]);
+                    continue;
+                }
+                if (!j[1].equals(date)) continue;
+                if (j[0].equals("M")) map.put(j[2], j[3]);
+                else map.remove(j[2]);
+            }
+        }
         List<String[]> out = new ArrayList<>();
-        for (String[] r : all) if (r[0].equals(date)) out.add(r);
+        for (Map.Entry<String, String> r : map.entrySet()) {
+            out.add(new String[]{date, r.getKey(), r.getValue()});
+        }
         return out;
     }
 
+    private static JournalTail journalTail(File dir) {
+        return journalTails.computeIfAbsent(key(dir), JournalTail::new);
+    }
+
+    /**
+     * loadJournal's records for one directory, kept between calls: while the journal
+     * generation stays the same, only bytes appended to the live journal since the last call
+     * are read and parsed. A new generation (a rotation, here or in another process) starts
+     * again from the files; the file identity is not trusted for this, as a new journal often
+     * gets the inode of the one just moved aside.
+     */
+    private static class JournalTail {
+        final File dir;
+        long generation = -1;
+        long liveOffset;
+        final List<String[]> records = new ArrayList<>();
+
+        JournalTail(File dir) {
+            this.dir = dir;
+        }
+
+        // under the journal lock, so no rotation falls between reading the generation and the files
+        void readAppended() throws IOException {
+            locked(dir, JOURNAL_LOCK_FILE, () -> {
+                File live = file(dir, JOURNAL_FILE);
+                long gen = journalGeneration(dir);
+                long size = live.length();
+                if (gen != generation || size < liveOffset) {
+                    records.clear();
+                    readJournal(file(dir, ROTATED_JOURNAL_FILE), records);
+                    generation = gen;
+                    liveOffset = 0;
+                }
+                if (size <= liveOffset) return null;
+                byte[] buf = new byte[(int) (size - liveOffset)];
+                try (RandomAccessFile raf = new RandomAccessFile(live, "r")) {
+                    raf.seek(liveOffset);
+                    raf.readFully(buf);
+                }
+                // a torn last line is cut off at the next load; leave it until then
+                int end = buf.length;
+                while (end > 0 && buf[end - 1] != '\n') end--;
+                parseJournal(Arrays.copyOf(buf, end), records);
+                liveOffset += end;
+                return null;
+            });
+        }
+    }
+
+    /**
+     * Write one date's attendance as StudentID,Name,Status for every student (blank status if
+     * nothing was recorded). statuses is studentId -> status for that date.
+     */
+    public static void exportAttendanceForDate(List<Student> students, Map<String, String> statuses, File out) throws IOException {
+        exportAttendanceForDate(students, statuses, null, null, null, out);
+    }
+
+    /**
+     * Same, with an extra column holding each student's percentage between from and to.
+     */
+    public static void exportAttendanceForDate(List<Student> students, Map<String, String> statuses,
+                                               AttendanceStore store, LocalDate from, LocalDate to, File out) throws IOException {
+        try (Metrics.Span span = Metrics.span("export.date")) {
+            try (PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(out)))) {
+                pw.println("StudentID,Name,Status" + (from != null ? ",Percent " + from + " to " + to : ""));
+                for (Student s : students) {
+                    String line = s.getId() + "," + s.getName() + "," + statuses.getOrDefault(s.getId(), "");
+                    if (from != null) line += "," + String.format("%.2f", store.getPercentage(s.getId(), from, to));
+                    pw.println(line);
+                }
+            }
+            span.finish(students.size(), out.length());
+        }
+    }
+
     /**
-     * Helper: convert a DefaultTableModel (student table) to a list of Student
+     * Helper: convert a TableModel (student table) to a list of Student
      * Not strictly required by your app but can be useful if you decide to save directly from table.
      */
-    public static List<Student> getStudentsFromTable(DefaultTableModel model) {
+    public static List<Student> getStudentsFromTable(TableModel model) {
         List<Student> list = new ArrayList<>();
         for (int i = 0; i < model.getRowCount(); i++) {
             Object idObj = model.getValueAt(i, 0);
@@ -8,8 +8,14 @@ public class LoginFrame extends JFrame {
 
     private final String VALID_USER = "admin";
     private final String VALID_PASS = "12345";
+    private final AttendanceClient remote;
 
     public LoginFrame() {
+        this(null);
+    }
+
+    public LoginFrame(AttendanceClient remote) {
+        this.remote = remote;
         setTitle("Attendance System - Login");
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setSize(350, 200);
@@ -51,7 +57,7 @@ public class LoginFrame extends JFrame {
         String p = new String(txtPass.getPassword()).trim();
         if (u.equals(VALID_USER) && p.equals(VALID_PASS)) {
             JOptionPane.showMessageDialog(this, "Login successful", "Success", JOptionPane.INFORMATION_MESSAGE);
-            new AttendanceApp(u);
+            new AttendanceApp(u, remote);
             dispose();
         } else {
             JOptionPane.showMessageDialog(this, "Invalid credentials", "Login Failed", JOptionPane.ERROR_MESSAGE);
@@ -1,7 +1,56 @@
 import javax.swing.SwingUtilities;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 
 public class Main {
-    public static void main(String[] args) {
-        SwingUtilities.invokeLater(() -> new LoginFrame());
+    /**
+     * No arguments: the Swing app on the local files.
+     *   --server [port] [--bind ADDRESS]
+     *                        headless server owning the data files in the current directory;
+     *                        loopback only unless --bind names an address (0.0.0.0 for all)
+     *   --connect URL        Swing app working against a server, e.g. http://host:8085
+     *   import, mark-from-file, recompute, report, compact, export-range, cohort, shard
+     *                        headless batch commands, see AttendanceCli
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && AttendanceCli.isCommand(args[0])) {
+            System.exit(AttendanceCli.run(args));
+        }
+        if (args.length > 0 && args[0].equals("--server")) {
+            int port = AttendanceServer.DEFAULT_PORT;
+            InetAddress bind = null;
+            for (int i = 1; i < args.length; i++) {
+                if (args[i].equals("--bind") && i + 1 < args.length) {
+                    try {
+                        bind = InetAddress.getByName(args[++i]);
+                    } catch (UnknownHostException ex) {
+                        serverUsage("unknown address: " + args[i]);
+                    }
+                } else if (args[i].matches("\\d{1,5}") && Integer.parseInt(args[i]) <= 65535) {
+                    port = Integer.parseInt(args[i]);
+                } else {
+                    serverUsage("bad argument: " + args[i]);
+                }
+            }
+            AttendanceServer server = AttendanceServer.start(FileStorage.defaultDir(), bind, port);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    server.stop();
+                } catch (Exception ex) {
+                    System.err.println("Error stopping server: " + ex.getMessage());
+                }
+            }));
+            System.out.println("Attendance server listening on " + server.getAddress().getHostAddress()
+                    + ":" + server.getPort());
+            return;
+        }
+        AttendanceClient remote = args.length > 1 && args[0].equals("--connect") ? new AttendanceClient(args[1]) : null;
+        SwingUtilities.invokeLater(() -> new LoginFrame(remote));
+    }
+
+    private static void serverUsage(String problem) {
+        System.err.println(problem);
+        System.err.println("Usage: java Main --server [port] [--bind ADDRESS]");
+        System.exit(AttendanceCli.USAGE);
     }
 }
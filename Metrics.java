@@ -0,0 +1,181 @@
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ObjectName;
+
+/**
+ * Metrics.java
+ * Counters and latency histograms for storage operations and UI refreshes. Each operation
+ * (e.g. "load.store", "save.attendance", "lookup.date", "export.date") is wrapped in a Span:
+ *
+ *   try (Metrics.Span span = Metrics.span("save.students")) {
+ *       ...
+ *       span.finish(rows, bytes);
+ *   }
+ *
+ * A span that is closed without finish() (an exception escaped) counts as an error.
+ * Every span is also a JFR StorageEvent. Latencies go into power-of-two microsecond
+ * buckets, so percentiles are upper bounds within a factor of two.
+ *
+ * The numbers are exposed as the MXBean attendance:type=Metrics and, when the system
+ * property attendance.metrics.log is set to a number of seconds, logged to stderr on that
+ * period as one line per operation.
+ */
+public class Metrics {
+
+    private static final int BUCKETS = 40; // bucket i holds latencies below 2^i microseconds
+
+    private static final Map<String, Stat> stats = new ConcurrentHashMap<>();
+
+    static {
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(new Bean(), new ObjectName("attendance:type=Metrics"));
+        } catch (Exception ex) {
+            System.err.println("Metrics MBean not registered: " + ex.getMessage());
+        }
+        long period = Long.getLong("attendance.metrics.log", 0);
+        if (period > 0) {
+            ScheduledExecutorService logger = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "metrics-log");
+                t.setDaemon(true);
+                return t;
+            });
+            logger.scheduleAtFixedRate(() -> {
+                for (String line : summary()) System.err.println("[metrics] " + line);
+            }, period, period, TimeUnit.SECONDS);
+        }
+    }
+
+    private static class Stat {
+        final LongAdder count = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder rows = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+        final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        void record(long elapsed, long r, long b, boolean ok) {
+            count.increment();
+            if (!ok) errors.increment();
+            rows.add(r);
+            bytes.add(b);
+            nanos.add(elapsed);
+            maxNanos.accumulate(elapsed);
+            long micros = elapsed / 1000;
+            buckets.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros)));
+        }
+
+        /**
+         * Upper bound in ms of the given quantile (0..1).
+         */
+        double percentileMs(double q) {
+            long n = 0;
+            for (int i = 0; i < BUCKETS; i++) n += buckets.get(i);
+            if (n == 0) return 0;
+            long rank = (long) Math.ceil(q * n), seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) return (1L << i) / 1000.0;
+            }
+            return maxNanos.get() / 1e6;
+        }
+
+        String line(String op) {
+            long c = count.sum();
+            return String.format("%s count=%d errors=%d rows=%d bytes=%d avg=%.2fms p50<=%.2fms p95<=%.2fms p99<=%.2fms max=%.2fms",
+                    op, c, errors.sum(), rows.sum(), bytes.sum(), c == 0 ? 0.0 : nanos.sum() / 1e6 / c,
+                    percentileMs(0.50), percentileMs(0.95), percentileMs(0.99), maxNanos.get() / 1e6);
+        }
+    }
+
+    /**
+     * One timed operation; see the class comment.
+     */
+    public static class Span implements AutoCloseable {
+        private final String op;
+        private final long start = System.nanoTime();
+        private final StorageEvent event = new StorageEvent();
+        private long rows, bytes;
+        private boolean finished;
+
+        private Span(String op) {
+            this.op = op;
+            event.begin();
+        }
+
+        public void finish() {
+            finished = true;
+        }
+
+        public void finish(long rows, long bytes) {
+            this.rows = rows;
+            this.bytes = bytes;
+            finished = true;
+        }
+
+        @Override
+        public void close() {
+            stat(op).record(System.nanoTime() - start, rows, bytes, finished);
+            if (event.shouldCommit()) {
+                event.operation = op;
+                event.rows = rows;
+                event.bytes = bytes;
+                event.succeeded = finished;
+                event.commit();
+            }
+        }
+    }
+
+    public static Span span(String op) {
+        return new Span(op);
+    }
+
+    /**
+     * Count a failure that was handled (and otherwise only reported to the user or ignored).
+     */
+    public static void error(String op, Throwable ex) {
+        stat(op).errors.increment();
+        System.err.println(op + " failed: " + ex);
+    }
+
+    private static Stat stat(String op) {
+        return stats.computeIfAbsent(op, k -> new Stat());
+    }
+
+    /**
+     * One line per operation, sorted by name.
+     */
+    public static List<String> summary() {
+        List<String> out = new ArrayList<>();
+        for (String op : new TreeSet<>(stats.keySet())) out.add(stats.get(op).line(op));
+        return out;
+    }
+
+    private static class Bean implements MetricsMXBean {
+        public String[] getOperations() {
+            return new TreeSet<>(stats.keySet()).toArray(new String[0]);
+        }
+
+        public String[] getSummary() {
+            return summary().toArray(new String[0]);
+        }
+
+        public long getErrorCount() {
+            long n = 0;
+            for (Stat s : stats.values()) n += s.errors.sum();
+            return n;
+        }
+
+        public void reset() {
+            stats.clear();
+        }
+    }
+}
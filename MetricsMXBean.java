@@ -0,0 +1,20 @@
+/**
+ * MetricsMXBean.java
+ * JMX view of Metrics, registered as attendance:type=Metrics (jconsole, VisualVM, jcmd).
+ */
+public interface MetricsMXBean {
+
+    /**
+     * Names of every operation recorded so far.
+     */
+    String[] getOperations();
+
+    /**
+     * One line per operation: count, errors, rows, bytes and latency percentiles.
+     */
+    String[] getSummary();
+
+    long getErrorCount();
+
+    void reset();
+}
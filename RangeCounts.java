@@ -0,0 +1,160 @@
+import java.util.*;
+
+/**
+ * RangeCounts.java
+ * Per-student present/total counts over any date range, for "this month" or "last 4 weeks"
+ * style percentages. Each student has a Fenwick (binary indexed) tree over the days from
+ * the first recorded date, so a range is two prefix sums, O(log days), and a changed mark
+ * is one point update of the same cost.
+ *
+ * Present and total are packed into one int per node (present in the high 16 bits, total
+ * in the low 16 bits); the index never spans more than 65535 days, so the halves cannot
+ * carry into each other and adding packed values adds both counts at once. Dates further
+ * apart than that are refused with an IllegalStateException rather than dropped.
+ *
+ * The trees cover exactly the first to the last recorded date. A mark outside that span
+ * grows every tree (unfolded to plain day counts, shifted and folded again, O(days) each),
+ * with an eighth of slack so a run of new dates does not regrow on every day.
+ *
+ * Students are the store's student ints and days are epoch days, as in AttendanceStore.Days.
+ */
+public class RangeCounts {
+
+    private static final int PRESENT_ONE = 1 << 16;
+    private static final int TOTAL_MASK = 0xffff;
+    private static final int MAX_SPAN = TOTAL_MASK;
+
+    private long baseDay;
+    private int capacity;
+    // per student int; null for a student with no records
+    private int[][] trees;
+
+    private RangeCounts(long baseDay, int capacity, int students) {
+        this.baseDay = baseDay;
+        this.capacity = capacity;
+        this.trees = new int[Math.max(16, students)][];
+    }
+
+    /**
+     * Build from the store's records, covering the first to the last recorded date.
+     */
+    public static RangeCounts build(AttendanceStore.Days days) {
+        if (days.size() == 0) return new RangeCounts(0, 0, days.studentCount());
+        long min = days.epochDay(0);
+        int span = checkedSpan(days.epochDay(days.size() - 1) - min + 1);
+        RangeCounts rc = new RangeCounts(min, span, days.studentCount());
+        // fill the leaves, then turn every array into a Fenwick tree in one O(n) pass
+        for (int d = 0; d < days.size(); d++) {
+            int i = (int) (days.epochDay(d) - min) + 1;
+            byte[] statuses = days.statuses(d);
+            int n = Math.min(statuses.length, days.studentCount());
+            for (int s = 0; s < n; s++) {
+                if (statuses[s] == 0) continue;
+                if (rc.trees[s] == null) rc.trees[s] = new int[span + 1];
+                rc.trees[s][i] += packed(AttendanceStore.Days.isPresent(statuses[s]));
+            }
+        }
+        for (int[] t : rc.trees) {
+            if (t != null) fold(t);
+        }
+        return rc;
+    }
+
+    /**
+     * Add (sign 1) or remove (sign -1) one record, growing the index if the day is outside it.
+     */
+    public void update(long day, int student, boolean present, int sign) {
+        grow(day);
+        if (student >= trees.length) trees = Arrays.copyOf(trees, Math.max(student + 1, trees.length * 2));
+        int[] t = trees[student];
+        if (t == null) t = trees[student] = new int[capacity + 1];
+        int v = sign * packed(present);
+        for (int i = (int) (day - baseDay) + 1; i <= capacity; i += i & -i) t[i] += v;
+    }
+
+    public void removeStudent(int student) {
+        if (student < trees.length) trees[student] = null;
+    }
+
+    /**
+     * {present, total} for a student between from and to, both inclusive.
+     */
+    public int[] get(int student, long fromDay, long toDay) {
+        int[] t = student < trees.length ? trees[student] : null;
+        if (t == null || fromDay > toDay) return new int[2];
+        int v = prefix(t, toDay) - prefix(t, fromDay - 1);
+        return new int[]{v >>> 16, v & TOTAL_MASK};
+    }
+
+    private int prefix(int[] t, long day) {
+        long n = Math.min(day - baseDay + 1, capacity);
+        int sum = 0;
+        for (int i = (int) Math.max(n, 0); i > 0; i -= i & -i) sum += t[i];
+        return sum;
+    }
+
+    // widen the covered days to include day, moving every tree to the new base
+    private void grow(long day) {
+        if (capacity == 0) {
+            baseDay = day;
+            capacity = 1;
+            return;
+        }
+        long end = baseDay + capacity; // exclusive
+        if (day >= baseDay && day < end) return;
+        long newBase = Math.min(baseDay, day);
+        long newEnd = Math.max(end, day + 1);
+        long slack = (newEnd - newBase) / 8;
+        if (day < baseDay) newBase -= slack;
+        else newEnd += slack;
+        // the slack is optional; only the real span has to fit
+        checkedSpan(Math.max(end, day + 1) - Math.min(baseDay, day));
+        if (newEnd - newBase > MAX_SPAN) {
+            if (day < baseDay) newBase = newEnd - MAX_SPAN;
+            else newEnd = newBase + MAX_SPAN;
+        }
+        int newCapacity = (int) (newEnd - newBase);
+        int shift = (int) (baseDay - newBase);
+        for (int s = 0; s < trees.length; s++) {
+            int[] t = trees[s];
+            if (t == null) continue;
+            unfold(t);
+            int[] n = new int[newCapacity + 1];
+            System.arraycopy(t, 1, n, 1 + shift, capacity);
+            fold(n);
+            trees[s] = n;
+        }
+        baseDay = newBase;
+        capacity = newCapacity;
+    }
+
+    private static int checkedSpan(long days) {
+        if (days > MAX_SPAN) {
+            throw new IllegalStateException("attendance dates span " + days
+                    + " days; range counts cover at most " + MAX_SPAN);
+        }
+        return (int) days;
+    }
+
+    // per-day counts (1-based) to a Fenwick tree, in place
+    private static void fold(int[] t) {
+        int n = t.length - 1;
+        for (int i = 1; i <= n; i++) {
+            int j = i + (i & -i);
+            if (j <= n) t[j] += t[i];
+        }
+    }
+
+    // a Fenwick tree back to per-day counts, in place
+    private static void unfold(int[] t) {
+        int n = t.length - 1;
+        for (int i = n; i >= 1; i--) {
+            int j = i + (i & -i);
+            if (j <= n) t[j] -= t[i];
+        }
+    }
+
+    private static int packed(boolean present) {
+        return present ? PRESENT_ONE + 1 : 1;
+    }
+}
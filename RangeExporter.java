@@ -0,0 +1,160 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * RangeExporter.java
+ * Exports every recorded date between two dates in one pass, for audits of a whole term:
+ *   MATRIX    one CSV with a row per date and a column per student (P/A, blank if none)
+ *   PER_DATE  one StudentID,Name,Status file per date, as the single-date export writes
+ * optionally gzip-compressed or packed into one zip.
+ *
+ * Dates are rendered in parallel on the common fork-join pool. Output that goes into a single
+ * stream (the matrix, or the zip) is rendered through a small window of dates written in
+ * order, so at most a few days are held in memory however long the range is; separate
+ * per-date files are written by their tasks directly. Days that are still only on disk are
+ * read without being cached in the store.
+ */
+public class RangeExporter {
+
+    public enum Layout { MATRIX, PER_DATE }
+
+    public enum Compression { NONE, GZIP, ZIP }
+
+    private static final int WINDOW = Math.max(2, ForkJoinPool.commonPool().getParallelism() * 2);
+
+    /**
+     * Export from..to (inclusive) into dir; returns the file or directory written.
+     */
+    public static File export(List<Student> students, AttendanceStore store, LocalDate from, LocalDate to,
+                              Layout layout, Compression compression, File dir) throws IOException {
+        List<String> dates = new ArrayList<>();
+        for (String d : store.getDates()) {
+            LocalDate day = LocalDate.parse(d);
+            if (!day.isBefore(from) && !day.isAfter(to)) dates.add(d);
+        }
+        Collections.sort(dates);
+        String base = "attendance_export_" + from + "_" + to;
+        try (Metrics.Span span = Metrics.span("export.range")) {
+            File out;
+            if (layout == Layout.MATRIX) {
+                out = new File(dir, base + (compression == Compression.GZIP ? ".csv.gz"
+                        : compression == Compression.ZIP ? ".zip" : ".csv"));
+                try (OutputStream os = open(out, compression, base + ".csv")) {
+                    os.write(matrixHeader(students));
+                    writeOrdered(dates, d -> matrixRow(d, students, store.readForDate(d)), (d, data) -> os.write(data));
+                }
+            } else if (compression == Compression.ZIP) {
+                out = new File(dir, base + "_by_date.zip");
+                try (ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(out)))) {
+                    writeOrdered(dates, d -> dateFile(students, store.readForDate(d)), (d, data) -> {
+                        zip.putNextEntry(new ZipEntry("attendance_" + d + ".csv"));
+                        zip.write(data);
+                        zip.closeEntry();
+                    });
+                }
+            } else {
+                out = new File(dir, base + "_by_date");
+                if (!out.isDirectory() && !out.mkdirs()) throw new IOException("Cannot create " + out);
+                String ext = compression == Compression.GZIP ? ".csv.gz" : ".csv";
+                List<Future<Void>> tasks = new ArrayList<>();
+                for (String d : dates) {
+                    tasks.add(ForkJoinPool.commonPool().submit(() -> {
+                        byte[] data = dateFile(students, store.readForDate(d));
+                        File f = new File(out, "attendance_" + d + ext);
+                        try (OutputStream os = open(f, compression, null)) {
+                            os.write(data);
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<Void> t : tasks) join(t);
+            }
+            span.finish((long) dates.size() * students.size(), size(out));
+            return out;
+        }
+    }
+
+    private interface Renderer {
+        byte[] render(String date) throws IOException;
+    }
+
+    private interface Sink {
+        void write(String date, byte[] data) throws IOException;
+    }
+
+    /**
+     * Render dates in parallel, at most WINDOW ahead of the writer, and write them in order.
+     */
+    private static void writeOrdered(List<String> dates, Renderer renderer, Sink sink) throws IOException {
+        ArrayDeque<Future<byte[]>> window = new ArrayDeque<>();
+        int next = 0, written = 0;
+        while (written < dates.size()) {
+            while (next < dates.size() && window.size() < WINDOW) {
+                String d = dates.get(next++);
+                window.add(ForkJoinPool.commonPool().submit(() -> renderer.render(d)));
+            }
+            sink.write(dates.get(written++), join(window.poll()));
+        }
+    }
+
+    private static <T> T join(Future<T> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("export interrupted");
+        } catch (ExecutionException ex) {
+            Throwable c = ex.getCause();
+            if (c instanceof IOException) throw (IOException) c;
+            throw new IOException(c.getMessage(), c);
+        }
+    }
+
+    private static OutputStream open(File f, Compression compression, String zipEntry) throws IOException {
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(f), 1 << 16);
+        if (compression == Compression.GZIP) return new GZIPOutputStream(os, 1 << 16);
+        if (compression == Compression.ZIP && zipEntry != null) {
+            ZipOutputStream zip = new ZipOutputStream(os);
+            zip.putNextEntry(new ZipEntry(zipEntry));
+            return zip;
+        }
+        return os;
+    }
+
+    private static byte[] matrixHeader(List<Student> students) {
+        StringBuilder sb = new StringBuilder("Date");
+        for (Student s : students) sb.append(',').append(s.getId());
+        return sb.append('\n').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] matrixRow(String date, List<Student> students, Map<String, String> statuses) {
+        StringBuilder sb = new StringBuilder(date.length() + students.size() * 2 + 1).append(date);
+        for (Student s : students) sb.append(',').append(statuses.getOrDefault(s.getId(), ""));
+        return sb.append('\n').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] dateFile(List<Student> students, Map<String, String> statuses) {
+        StringBuilder sb = new StringBuilder("StudentID,Name,Status\n");
+        for (Student s : students) {
+            sb.append(s.getId()).append(',').append(s.getName()).append(',')
+                    .append(statuses.getOrDefault(s.getId(), "")).append('\n');
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static long size(File f) {
+        if (!f.isDirectory()) return f.length();
+        long n = 0;
+        File[] files = f.listFiles();
+        if (files != null) for (File c : files) n += c.length();
+        return n;
+    }
+}
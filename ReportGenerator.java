@@ -0,0 +1,234 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * ReportGenerator.java
+ * Builds the HTML and text attendance reports: overall stats, student-wise percentage and
+ * a date-wise summary. The attendance data is read once; the dates are split across the
+ * fork-join pool, each task aggregating per-student and per-date counts for its share, and
+ * the partial counts are merged at the end. Both reports are then streamed straight to
+ * their files, so heap use is bounded by the number of students and dates, not by rows.
+ * A report over several shards aggregates each shard's store as its own fork-join task and
+ * adds the results up.
+ */
+public class ReportGenerator {
+
+    private static final int CHUNK_DATES = 16;
+
+    /**
+     * Counts gathered in the single pass over the data.
+     */
+    static class Aggregate {
+        final Map<String, int[]> perStudent = new HashMap<>(); // id -> {present, total}
+        final Map<String, int[]> perDate = new TreeMap<>();    // date -> {present, total}
+        long present, total;
+        // per student int of the store while the tasks run; folded into perStudent at the end
+        int[] studentPresent, studentTotal;
+
+        Aggregate(int students) {
+            studentPresent = new int[students];
+            studentTotal = new int[students];
+        }
+
+        void merge(Aggregate other) {
+            for (int s = 0; s < studentTotal.length; s++) {
+                studentPresent[s] += other.studentPresent[s];
+                studentTotal[s] += other.studentTotal[s];
+            }
+            perDate.putAll(other.perDate);
+            present += other.present;
+            total += other.total;
+        }
+
+        /**
+         * Add another shard's finished counts; shards may share students and dates.
+         */
+        void add(Aggregate other) {
+            for (Map.Entry<String, int[]> e : other.perStudent.entrySet()) {
+                int[] c = perStudent.computeIfAbsent(e.getKey(), k -> new int[2]);
+                c[0] += e.getValue()[0];
+                c[1] += e.getValue()[1];
+            }
+            for (Map.Entry<String, int[]> e : other.perDate.entrySet()) {
+                int[] c = perDate.computeIfAbsent(e.getKey(), k -> new int[2]);
+                c[0] += e.getValue()[0];
+                c[1] += e.getValue()[1];
+            }
+            present += other.present;
+            total += other.total;
+        }
+    }
+
+    /**
+     * Write attendance_report.html / .txt style reports to the given files.
+     */
+    public static void generate(List<Student> students, AttendanceStore store, File html, File txt) throws IOException {
+        generate(students, Collections.singletonList(store), html, txt);
+    }
+
+    /**
+     * Same, over the stores of several shards.
+     */
+    public static void generate(List<Student> students, List<AttendanceStore> stores, File html, File txt) throws IOException {
+        try (Metrics.Span span = Metrics.span("report")) {
+            Aggregate agg = stores.size() == 1 ? aggregate(stores.get(0))
+                    : ForkJoinPool.commonPool().invoke(new ShardTask(stores, 0, stores.size()));
+            try (PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(html)))) {
+                writeHtml(pw, students, agg);
+            }
+            try (PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(txt)))) {
+                writeText(pw, students, agg);
+            }
+            span.finish(agg.total, html.length() + txt.length());
+        }
+    }
+
+    static Aggregate aggregate(AttendanceStore store) {
+        return store.withDays(days -> {
+            Aggregate agg = ForkJoinPool.commonPool().invoke(new AggregateTask(days, 0, days.size()));
+            for (int s = 0; s < agg.studentTotal.length; s++) {
+                if (agg.studentTotal[s] > 0) {
+                    agg.perStudent.put(days.studentId(s), new int[]{agg.studentPresent[s], agg.studentTotal[s]});
+                }
+            }
+            agg.studentPresent = agg.studentTotal = null;
+            return agg;
+        });
+    }
+
+    private static class ShardTask extends RecursiveTask<Aggregate> {
+        private final List<AttendanceStore> stores;
+        private final int from, to;
+
+        ShardTask(List<AttendanceStore> stores, int from, int to) {
+            this.stores = stores;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Aggregate compute() {
+            if (to - from <= 1) return from < to ? aggregate(stores.get(from)) : new Aggregate(0);
+            int mid = (from + to) >>> 1;
+            ShardTask left = new ShardTask(stores, from, mid);
+            left.fork();
+            Aggregate right = new ShardTask(stores, mid, to).compute();
+            Aggregate sum = left.join();
+            sum.add(right);
+            return sum;
+        }
+    }
+
+    private static class AggregateTask extends RecursiveTask<Aggregate> {
+        private final AttendanceStore.Days days;
+        private final int from, to;
+
+        AggregateTask(AttendanceStore.Days days, int from, int to) {
+            this.days = days;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Aggregate compute() {
+            if (to - from > CHUNK_DATES) {
+                int mid = (from + to) >>> 1;
+                AggregateTask left = new AggregateTask(days, from, mid);
+                left.fork();
+                Aggregate right = new AggregateTask(days, mid, to).compute();
+                Aggregate merged = left.join();
+                merged.merge(right);
+                return merged;
+            }
+            Aggregate a = new Aggregate(days.studentCount());
+            for (int i = from; i < to; i++) {
+                byte[] statuses = days.statuses(i);
+                int n = Math.min(statuses.length, days.studentCount());
+                int[] d = new int[2];
+                for (int s = 0; s < n; s++) {
+                    if (statuses[s] == 0) continue;
+                    if (AttendanceStore.Days.isPresent(statuses[s])) {
+                        a.studentPresent[s]++;
+                        d[0]++;
+                    }
+                    a.studentTotal[s]++;
+                    d[1]++;
+                }
+                if (d[1] > 0) a.perDate.put(days.date(i), d);
+                a.present += d[0];
+                a.total += d[1];
+            }
+            return a;
+        }
+    }
+
+    private static double pct(long present, long total) {
+        return total == 0 ? 0.0 : (present * 100.0) / total;
+    }
+
+    private static void writeHtml(PrintWriter pw, List<Student> students, Aggregate agg) {
+        pw.println("<!DOCTYPE html>");
+        pw.println("<html><head><meta charset=\"UTF-8\"><title>Attendance Report</title>");
+        pw.println("<style>body{font-family:sans-serif}table{border-collapse:collapse;margin-bottom:24px}"
+                + "td,th{border:1px solid #999;padding:4px 8px}th{background:#eee}</style></head><body>");
+        pw.println("<h1>Attendance Report</h1>");
+
+        pw.println("<h2>Overall</h2><table>");
+        pw.println("<tr><th>Students</th><td>" + students.size() + "</td></tr>");
+        pw.println("<tr><th>Days recorded</th><td>" + agg.perDate.size() + "</td></tr>");
+        pw.println("<tr><th>Records</th><td>" + agg.total + "</td></tr>");
+        pw.println("<tr><th>Present</th><td>" + agg.present + "</td></tr>");
+        pw.printf("<tr><th>Overall attendance %%</th><td>%.2f</td></tr>%n", pct(agg.present, agg.total));
+        pw.println("</table>");
+
+        pw.println("<h2>Student-wise</h2><table>");
+        pw.println("<tr><th>ID</th><th>Name</th><th>Present</th><th>Total</th><th>Attendance %</th></tr>");
+        for (Student s : students) {
+            int[] c = agg.perStudent.getOrDefault(s.getId(), new int[2]);
+            pw.printf("<tr><td>%s</td><td>%s</td><td>%d</td><td>%d</td><td>%.2f</td></tr>%n",
+                    escape(s.getId()), escape(s.getName()), c[0], c[1], pct(c[0], c[1]));
+        }
+        pw.println("</table>");
+
+        pw.println("<h2>Date-wise</h2><table>");
+        pw.println("<tr><th>Date</th><th>Present</th><th>Absent</th><th>Attendance %</th></tr>");
+        for (Map.Entry<String, int[]> e : agg.perDate.entrySet()) {
+            int[] d = e.getValue();
+            pw.printf("<tr><td>%s</td><td>%d</td><td>%d</td><td>%.2f</td></tr>%n",
+                    e.getKey(), d[0], d[1] - d[0], pct(d[0], d[1]));
+        }
+        pw.println("</table></body></html>");
+    }
+
+    private static void writeText(PrintWriter pw, List<Student> students, Aggregate agg) {
+        pw.println("ATTENDANCE REPORT");
+        pw.println("=================");
+        pw.println();
+        pw.println("Overall");
+        pw.println("  Students      : " + students.size());
+        pw.println("  Days recorded : " + agg.perDate.size());
+        pw.println("  Records       : " + agg.total);
+        pw.println("  Present       : " + agg.present);
+        pw.printf("  Attendance %%  : %.2f%n", pct(agg.present, agg.total));
+        pw.println();
+        pw.println("Student-wise");
+        pw.printf("  %-12s %-28s %8s %8s %8s%n", "ID", "Name", "Present", "Total", "%");
+        for (Student s : students) {
+            int[] c = agg.perStudent.getOrDefault(s.getId(), new int[2]);
+            pw.printf("  %-12s %-28s %8d %8d %8.2f%n", s.getId(), s.getName(), c[0], c[1], pct(c[0], c[1]));
+        }
+        pw.println();
+        pw.println("Date-wise");
+        pw.printf("  %-12s %8s %8s %8s%n", "Date", "Present", "Absent", "%");
+        for (Map.Entry<String, int[]> e : agg.perDate.entrySet()) {
+            int[] d = e.getValue();
+            pw.printf("  %-12s %8d %8d %8.2f%n", e.getKey(), d[0], d[1] - d[0], pct(d[0], d[1]));
+        }
+    }
+
+    private static String escape(String s) {
+        return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+}
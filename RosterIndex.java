@@ -0,0 +1,223 @@
+import java.util.*;
+
+/**
+ * RosterIndex.java
+ * The student roster with the indexes the UI needs: an id -> slot hash map for O(1)
+ * duplicate checks and removal, and a sorted token array for live search. Every student is
+ * indexed under its lower-cased id and each word of its name; a prefix search is a binary
+ * search into the sorted tokens followed by a walk over the matching run, and the hits are
+ * collected in a bitset over roster slots so they come out in roster order without sorting.
+ *
+ * Students added after the last rebuild are kept in a short tail that search scans
+ * directly; the sorted array is rebuilt once the tail (or the number of removed slots)
+ * grows past a limit, so single adds and removes stay cheap.
+ *
+ * Not thread-safe; the app changes it on the Swing thread and hands copies to background tasks.
+ */
+public class RosterIndex {
+
+    private static final int MAX_TAIL = 8192;
+
+    // roster order; removed students leave a null until the next rebuild
+    private final List<Student> slots = new ArrayList<>();
+    private final List<String[]> slotTokens = new ArrayList<>();
+    private final Map<String, Integer> slotOf = new HashMap<>();
+    private int removed;
+
+    // sorted tokens of slots [0, indexed), with the slot each came from
+    private String[] keys = new String[0];
+    private int[] keySlots = new int[0];
+    private int indexed;
+
+    private List<Student> view; // cached roster order, rebuilt after a change
+
+    public RosterIndex() {
+    }
+
+    public RosterIndex(Collection<Student> students) {
+        addAll(students);
+    }
+
+    public int size() {
+        return slotOf.size();
+    }
+
+    public boolean contains(String id) {
+        return slotOf.containsKey(id);
+    }
+
+    public Student get(String id) {
+        Integer slot = slotOf.get(id);
+        return slot == null ? null : slots.get(slot);
+    }
+
+    /**
+     * Add a student; false (and no change) if the id is already taken.
+     */
+    public boolean add(Student s) {
+        if (!append(s)) return false;
+        if (slots.size() - indexed > MAX_TAIL) rebuild();
+        return true;
+    }
+
+    public void addAll(Collection<Student> students) {
+        for (Student s : students) append(s);
+        if (slots.size() - indexed > MAX_TAIL) rebuild();
+    }
+
+    private boolean append(Student s) {
+        if (slotOf.putIfAbsent(s.getId(), slots.size()) != null) return false;
+        slots.add(s);
+        slotTokens.add(tokensOf(s));
+        view = null;
+        return true;
+    }
+
+    /**
+     * Remove a student by id; returns it, or null if there was none.
+     */
+    public Student remove(String id) {
+        Integer slot = slotOf.remove(id);
+        if (slot == null) return null;
+        Student s = slots.set(slot, null);
+        slotTokens.set(slot, null);
+        removed++;
+        view = null;
+        if (removed > MAX_TAIL && removed > slots.size() / 4) rebuild();
+        return s;
+    }
+
+    /**
+     * The whole roster in order, as a read-only list.
+     */
+    public List<Student> students() {
+        if (view == null) {
+            List<Student> list = new ArrayList<>(slotOf.size());
+            for (Student s : slots) {
+                if (s != null) list.add(s);
+            }
+            view = Collections.unmodifiableList(list);
+        }
+        return view;
+    }
+
+    public Set<String> ids() {
+        return Collections.unmodifiableSet(slotOf.keySet());
+    }
+
+    /**
+     * Students whose id or a name word starts with each word of the query, in roster order.
+     * A blank query returns the whole roster.
+     */
+    public List<Student> search(String query) {
+        String q = query.trim().toLowerCase(Locale.ROOT);
+        if (q.isEmpty()) return students();
+        String[] words = q.split("\\s+");
+        BitSet hits = new BitSet(slots.size());
+        // indexed part: the run of keys starting with the first word
+        for (int i = lowerBound(words[0]); i < keys.length && keys[i].startsWith(words[0]); i++) {
+            hits.set(keySlots[i]);
+        }
+        // tail added since the last rebuild
+        for (int slot = indexed; slot < slots.size(); slot++) {
+            String[] t = slotTokens.get(slot);
+            if (t != null && hasPrefix(t, words[0])) hits.set(slot);
+        }
+        List<Student> out = new ArrayList<>();
+        for (int slot = hits.nextSetBit(0); slot >= 0; slot = hits.nextSetBit(slot + 1)) {
+            Student s = slots.get(slot);
+            if (s == null) continue;
+            if (words.length > 1 && !matchesRest(slotTokens.get(slot), words)) continue;
+            out.add(s);
+        }
+        return out;
+    }
+
+    private int lowerBound(String key) {
+        int lo = 0, hi = keys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid].compareTo(key) < 0) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Drop removed slots and sort every token into the search arrays.
+     */
+    private void rebuild() {
+        List<Student> live = new ArrayList<>(slotOf.size());
+        List<String[]> liveTokens = new ArrayList<>(slotOf.size());
+        int count = 0;
+        for (int i = 0; i < slots.size(); i++) {
+            if (slots.get(i) == null) continue;
+            live.add(slots.get(i));
+            liveTokens.add(slotTokens.get(i));
+            count += slotTokens.get(i).length;
+        }
+        slots.clear();
+        slots.addAll(live);
+        slotTokens.clear();
+        slotTokens.addAll(liveTokens);
+        removed = 0;
+        slotOf.clear();
+        Integer[] order = new Integer[count];
+        String[] k = new String[count];
+        int[] ks = new int[count];
+        int n = 0;
+        for (int slot = 0; slot < slots.size(); slot++) {
+            slotOf.put(slots.get(slot).getId(), slot);
+            for (String t : slotTokens.get(slot)) {
+                k[n] = t;
+                ks[n] = slot;
+                order[n] = n;
+                n++;
+            }
+        }
+        Arrays.sort(order, (a, b) -> k[a].compareTo(k[b]));
+        keys = new String[count];
+        keySlots = new int[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = k[order[i]];
+            keySlots[i] = ks[order[i]];
+        }
+        indexed = slots.size();
+        view = null;
+    }
+
+    private static boolean matchesRest(String[] tokens, String[] words) {
+        for (int i = 1; i < words.length; i++) {
+            if (!hasPrefix(tokens, words[i])) return false;
+        }
+        return true;
+    }
+
+    private static boolean hasPrefix(String[] tokens, String prefix) {
+        for (String t : tokens) {
+            if (t.startsWith(prefix)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Lower-cased id plus each run of letters and digits in the name.
+     */
+    private static String[] tokensOf(Student s) {
+        List<String> out = new ArrayList<>(4);
+        out.add(s.getId().toLowerCase(Locale.ROOT));
+        String name = s.getName().toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= name.length(); i++) {
+            boolean word = i < name.length() && Character.isLetterOrDigit(name.charAt(i));
+            if (word && start < 0) {
+                start = i;
+            } else if (!word && start >= 0) {
+                String w = name.substring(start, i);
+                if (!out.contains(w)) out.add(w);
+                start = -1;
+            }
+        }
+        return out.toArray(new String[0]);
+    }
+}
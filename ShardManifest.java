@@ -0,0 +1,342 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * ShardManifest.java
+ * Splits the data into shards by class section or by term. Each shard is a directory with
+ * its own students.csv, attendance.csv, journal and derived files, so FileStorage reads and
+ * writes it like any other data directory. The shards are listed in shards.manifest in the
+ * base directory, one per line:
+ *
+ *   # name,directory[,from,to]
+ *   10-A,shards/10-A                                 a section: its students, every date
+ *   2024-T1,shards/2024-T1,2024-01-01,2024-04-30      a term: every student, dates in the term
+ *
+ * A record belongs to the shard that lists the student and whose term (if any) holds the
+ * date; route() finds it, so a write touches only that shard's files. loadAll() reads the
+ * shards in parallel on the fork-join pool. Without a manifest the base directory itself is
+ * the only shard, and everything works on it as before.
+ */
+public class ShardManifest {
+
+    public static final String MANIFEST_FILE = "shards.manifest";
+    public static final String SHARDS_DIR = "shards";
+    // section of students the section list does not name
+    private static final String UNASSIGNED = "unassigned";
+
+    /**
+     * One shard: a name, its directory, and for a term shard the first and last date.
+     */
+    public static class Shard {
+        public final String name;
+        public final File dir;
+        public final LocalDate from, to; // null for a section shard
+
+        public Shard(String name, File dir, LocalDate from, LocalDate to) {
+            this.name = name;
+            this.dir = dir;
+            this.from = from;
+            this.to = to;
+        }
+
+        public boolean isTerm() {
+            return from != null;
+        }
+
+        /**
+         * Whether records of this date belong here; any date does for a section shard.
+         */
+        public boolean covers(String date) {
+            if (from == null) return true;
+            return date.compareTo(from.toString()) >= 0 && date.compareTo(to.toString()) <= 0;
+        }
+
+        @Override
+        public String toString() {
+            return isTerm() ? name + " (" + from + " to " + to + ")" : name;
+        }
+    }
+
+    /**
+     * A shard with its roster and attendance loaded.
+     */
+    public static class Loaded {
+        public final Shard shard;
+        public final List<Student> students;
+        public final AttendanceStore store;
+
+        Loaded(Shard shard, List<Student> students, AttendanceStore store) {
+            this.shard = shard;
+            this.students = students;
+            this.store = store;
+        }
+    }
+
+    private final File base;
+    private final List<Shard> shards;
+    private final boolean sharded;
+
+    private ShardManifest(File base, List<Shard> shards, boolean sharded) {
+        this.base = base;
+        this.shards = shards;
+        this.sharded = sharded;
+    }
+
+    /**
+     * The shards listed in base/shards.manifest, or the base directory as the only shard when
+     * there is no manifest.
+     */
+    public static ShardManifest read(File base) throws IOException {
+        File f = new File(base, MANIFEST_FILE);
+        if (!f.exists()) {
+            return new ShardManifest(base, Collections.singletonList(new Shard("", base, null, null)), false);
+        }
+        List<Shard> list = new ArrayList<>();
+        int lineNo = 0;
+        for (String line : Files.readAllLines(f.toPath(), StandardCharsets.UTF_8)) {
+            lineNo++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            String[] p = line.split(",");
+            try {
+                if (p.length == 2) {
+                    list.add(new Shard(p[0].trim(), new File(base, p[1].trim()), null, null));
+                } else if (p.length == 4) {
+                    list.add(new Shard(p[0].trim(), new File(base, p[1].trim()),
+                            LocalDate.parse(p[2].trim()), LocalDate.parse(p[3].trim())));
+                } else {
+                    throw new IOException(MANIFEST_FILE + " line " + lineNo + ": expected name,directory[,from,to]");
+                }
+            } catch (DateTimeParseException ex) {
+                throw new IOException(MANIFEST_FILE + " line " + lineNo + ": bad date: " + ex.getParsedString());
+            }
+        }
+        return new ShardManifest(base, list, true);
+    }
+
+    /**
+     * Write a manifest for the given shards, whose directories must be inside base.
+     */
+    public static void write(File base, List<Shard> shards) throws IOException {
+        Path root = base.getAbsoluteFile().toPath().normalize();
+        File tmp = new File(base, MANIFEST_FILE + ".tmp");
+        try (PrintWriter pw = new PrintWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+            pw.println("# name,directory[,from,to]");
+            for (Shard s : shards) {
+                String dir = root.relativize(s.dir.getAbsoluteFile().toPath().normalize()).toString().replace('\\', '/');
+                pw.println(s.name + "," + dir + (s.isTerm() ? "," + s.from + "," + s.to : ""));
+            }
+        }
+        Files.move(tmp.toPath(), new File(base, MANIFEST_FILE).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * A shard name is also its directory name, so keep it to letters, digits, '.', '_' and '-'.
+     */
+    public static boolean isValidName(String name) {
+        return name.matches("[A-Za-z0-9][A-Za-z0-9._-]*");
+    }
+
+    public boolean isSharded() {
+        return sharded;
+    }
+
+    public File getBase() {
+        return base;
+    }
+
+    public List<Shard> shards() {
+        return shards;
+    }
+
+    public Shard get(String name) {
+        for (Shard s : shards) {
+            if (s.name.equals(name)) return s;
+        }
+        return null;
+    }
+
+    /**
+     * Only the named shard, or every shard when name is null.
+     */
+    public ShardManifest select(String name) {
+        if (name == null) return this;
+        Shard s = get(name);
+        if (s == null) throw new IllegalArgumentException("no shard named " + name + " in " + MANIFEST_FILE);
+        return new ShardManifest(base, Collections.singletonList(s), sharded);
+    }
+
+    /**
+     * studentId -> the shards that list the student, read from each shard's students.csv
+     * only (no attendance is loaded).
+     */
+    public Map<String, List<Shard>> studentIndex() throws IOException {
+        Map<String, List<Shard>> index = new HashMap<>();
+        for (Shard s : shards) {
+            for (Student st : FileStorage.loadStudents(s.dir)) {
+                index.computeIfAbsent(st.getId(), k -> new ArrayList<>(1)).add(s);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * The shard a record for this date and student belongs to, or null if none holds it.
+     */
+    public static Shard route(Map<String, List<Shard>> studentIndex, String date, String studentId) {
+        List<Shard> candidates = studentIndex.get(studentId);
+        if (candidates == null) return null;
+        for (Shard s : candidates) {
+            if (s.covers(date)) return s;
+        }
+        return null;
+    }
+
+    /**
+     * Load every shard's roster and attendance, one fork-join task per shard.
+     */
+    public List<Loaded> loadAll() throws IOException {
+        try (Metrics.Span span = Metrics.span("load.shards")) {
+            List<Loaded> loaded = ForkJoinPool.commonPool().invoke(new LoadTask(shards, 0, shards.size()));
+            span.finish(loaded.size(), 0);
+            return loaded;
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    private static class LoadTask extends RecursiveTask<List<Loaded>> {
+        private final List<Shard> shards;
+        private final int from, to;
+
+        LoadTask(List<Shard> shards, int from, int to) {
+            this.shards = shards;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<Loaded> compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                LoadTask left = new LoadTask(shards, from, mid);
+                left.fork();
+                List<Loaded> right = new LoadTask(shards, mid, to).compute();
+                List<Loaded> out = new ArrayList<>(left.join());
+                out.addAll(right);
+                return out;
+            }
+            List<Loaded> out = new ArrayList<>();
+            for (int i = from; i < to; i++) {
+                Shard s = shards.get(i);
+                try {
+                    out.add(new Loaded(s, FileStorage.loadStudents(s.dir), AttendanceStore.load(s.dir)));
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }
+            return out;
+        }
+    }
+
+    /**
+     * Split the unsharded data in base into one shard per section. sectionOf maps student ids
+     * to section names; students it does not list, and attendance of ids no longer in
+     * students.csv, go to an "unassigned" shard. Pending journal records are included. The
+     * files in base are left as they were.
+     */
+    public static ShardManifest splitBySection(File base, Map<String, String> sectionOf) throws IOException {
+        Map<String, Shard> byName = new TreeMap<>();
+        return split(base, (date, id) -> byName.computeIfAbsent(sectionOf.getOrDefault(id, UNASSIGNED),
+                name -> new Shard(name, shardDir(base, name), null, null)), byName);
+    }
+
+    /**
+     * Split the unsharded data in base into the given term shards (name, from, to; the
+     * directories are chosen here). Every student is listed in every term. Fails without
+     * writing anything if a record falls in no term.
+     */
+    public static ShardManifest splitByTerm(File base, List<Shard> terms) throws IOException {
+        Map<String, Shard> byName = new LinkedHashMap<>();
+        for (Shard t : terms) byName.put(t.name, new Shard(t.name, shardDir(base, t.name), t.from, t.to));
+        return split(base, (date, id) -> {
+            for (Shard s : byName.values()) {
+                if (s.covers(date)) return s;
+            }
+            return null;
+        }, byName);
+    }
+
+    private interface Assigner {
+        Shard shardOf(String date, String studentId);
+    }
+
+    private static ShardManifest split(File base, Assigner assign, Map<String, Shard> shards) throws IOException {
+        if (new File(base, MANIFEST_FILE).exists()) throw new IOException(MANIFEST_FILE + " already exists");
+        try (Metrics.Span span = Metrics.span("shard.split")) {
+            List<Student> students = FileStorage.loadStudents(base);
+            AttendanceStore.Days days = AttendanceStore.load(base).snapshot();
+            Map<Shard, AttendanceStore> stores = new HashMap<>();
+            long rows = 0;
+            for (int d = 0; d < days.size(); d++) {
+                byte[] statuses = days.statuses(d);
+                int n = Math.min(statuses.length, days.studentCount());
+                for (int i = 0; i < n; i++) {
+                    if (statuses[i] == 0) continue;
+                    String id = days.studentId(i);
+                    Shard s = assign.shardOf(days.date(d), id);
+                    if (s == null) throw new IOException("record of " + id + " on " + days.date(d) + " falls in no shard");
+                    stores.computeIfAbsent(s, k -> new AttendanceStore())
+                            .mark(days.date(d), id, AttendanceStore.Days.statusString(statuses[i]));
+                    rows++;
+                }
+            }
+            Map<Shard, List<Student>> rosters = new HashMap<>();
+            for (Student st : students) {
+                for (Shard s : rostersOf(assign, shards, st.getId())) {
+                    rosters.computeIfAbsent(s, k -> new ArrayList<>()).add(st);
+                }
+            }
+            List<Shard> list = new ArrayList<>(shards.values());
+            for (Shard s : list) {
+                Files.createDirectories(s.dir.toPath());
+                FileStorage.saveStudents(s.dir, rosters.getOrDefault(s, new ArrayList<>()));
+                AttendanceStore store = stores.getOrDefault(s, new AttendanceStore());
+                FileStorage.saveAttendance(s.dir, store.snapshot());
+            }
+            write(base, list);
+            span.finish(rows, 0);
+            return read(base);
+        }
+    }
+
+    // a term split lists every student in every term; a section split lists each in one
+    private static Collection<Shard> rostersOf(Assigner assign, Map<String, Shard> shards, String id) {
+        boolean terms = !shards.isEmpty() && shards.values().iterator().next().isTerm();
+        return terms ? shards.values() : Collections.singletonList(assign.shardOf(null, id));
+    }
+
+    private static File shardDir(File base, String name) {
+        if (!isValidName(name)) throw new IllegalArgumentException("bad shard name: " + name);
+        return new File(new File(base, SHARDS_DIR), name);
+    }
+
+    /**
+     * Students of all the loaded shards, each id once, in shard order (a student is listed by
+     * every term shard).
+     */
+    public static List<Student> students(List<Loaded> loaded) {
+        Map<String, Student> byId = new LinkedHashMap<>();
+        for (Loaded l : loaded) {
+            for (Student s : l.students) byId.putIfAbsent(s.getId(), s);
+        }
+        return new ArrayList<>(byId.values());
+    }
+}
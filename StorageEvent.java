@@ -0,0 +1,33 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Event;
+
+/**
+ * StorageEvent.java
+ * JFR event emitted for every operation timed by Metrics (file loads and saves, date
+ * lookups, exports, table refreshes), so a recording shows which operation was running
+ * when the UI stalled. Record with e.g.
+ *   java -XX:StartFlightRecording:filename=attendance.jfr Main
+ */
+@Name("attendance.Operation")
+@Label("Attendance Operation")
+@Category("Attendance")
+@Description("A timed storage or UI refresh operation")
+public class StorageEvent extends Event {
+
+    @Label("Operation")
+    public String operation;
+
+    @Label("Rows")
+    public long rows;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+
+    @Label("Succeeded")
+    public boolean succeeded;
+}
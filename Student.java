@@ -14,4 +14,15 @@ public class Student {
     public String getName() {
         return name;
     }
+
+    // students are identified by id alone
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Student && ((Student) o).id.equals(id);
+    }
+
+    @Override
+    public int hashCode() {
+        return id.hashCode();
+    }
 }
@@ -0,0 +1,121 @@
+import javax.swing.table.AbstractTableModel;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * StudentTableModel.java
+ * Student table backed directly by the roster list and a map of precomputed percentages.
+ * Cells are formatted in getValueAt, so only rows the JTable actually paints are
+ * formatted, and a refresh is a single table-changed event. The percentages are computed
+ * off the event thread (AttendanceStore.getPercentages) and handed in as plain numbers,
+ * so painting never waits on the store's lock; a student without numbers yet shows blank.
+ * The last column is the percentage over the selected From/To range, when one is set.
+ */
+public class StudentTableModel extends AbstractTableModel {
+
+    private static final String[] COLUMNS = {"ID", "Name", "Attendance %", "Range %"};
+
+    private List<Student> students = new ArrayList<>();
+    // studentId -> {overall %, range %}
+    private Map<String, double[]> percentages = new HashMap<>();
+    private LocalDate from, to;
+
+    public void setData(List<Student> students) {
+        this.students = students;
+        fireTableDataChanged();
+    }
+
+    /**
+     * Replace all percentages, e.g. after a reload or a new range.
+     */
+    public void setPercentages(Map<String, double[]> percentages) {
+        this.percentages = percentages;
+        fireTableDataChanged();
+    }
+
+    /**
+     * Update the percentages of some students and repaint only their rows.
+     */
+    public void updatePercentages(Map<String, double[]> changed) {
+        percentages.putAll(changed);
+        refreshStudents(changed.keySet());
+    }
+
+    /**
+     * Label the range column from..to (inclusive); null clears it. The numbers follow
+     * with the next setPercentages.
+     */
+    public void setRange(LocalDate from, LocalDate to) {
+        this.from = from;
+        this.to = to;
+        fireTableStructureChanged();
+    }
+
+    /**
+     * Repaint after the backing list changed.
+     */
+    public void refresh() {
+        fireTableDataChanged();
+    }
+
+    /**
+     * The list grew at the end (new students in roster order); announce only the new rows.
+     */
+    public void appendRows(List<Student> students) {
+        int old = this.students.size();
+        this.students = students;
+        if (students.size() > old) fireTableRowsInserted(old, students.size() - 1);
+    }
+
+    /**
+     * Repaint only the rows of the given students, e.g. after marks made by another terminal.
+     */
+    public void refreshStudents(Set<String> ids) {
+        int start = -1;
+        for (int r = 0; r <= students.size(); r++) {
+            boolean hit = r < students.size() && ids.contains(students.get(r).getId());
+            if (hit && start < 0) {
+                start = r;
+            } else if (!hit && start >= 0) {
+                fireTableRowsUpdated(start, r - 1);
+                start = -1;
+            }
+        }
+    }
+
+    public Student getStudentAt(int row) {
+        return students.get(row);
+    }
+
+    @Override
+    public int getRowCount() {
+        return students.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int c) {
+        if (c == 3 && from != null) return from + " .. " + to + " %";
+        return COLUMNS[c];
+    }
+
+    @Override
+    public Object getValueAt(int r, int c) {
+        Student s = students.get(r);
+        switch (c) {
+            case 0: return s.getId();
+            case 1: return s.getName();
+            case 2: return format(s.getId(), 0);
+            default: return from == null ? "" : format(s.getId(), 1);
+        }
+    }
+
+    private String format(String id, int column) {
+        double[] p = percentages.get(id);
+        return p == null || Double.isNaN(p[column]) ? "" : String.format("%.2f", p[column]);
+    }
+}
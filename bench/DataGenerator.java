@@ -0,0 +1,61 @@
+import java.io.*;
+import java.time.LocalDate;
+import java.util.Random;
+
+/**
+ * DataGenerator.java
+ * Writes synthetic students.csv and attendance.csv files at a chosen scale for the
+ * benchmarks (and for trying the app on a large dataset).
+ *
+ * Usage: java DataGenerator <students> <days> [dir] [seed]
+ */
+public class DataGenerator {
+
+    public static final LocalDate START = LocalDate.of(2024, 1, 1);
+
+    private static final String[] FIRST = {"Rahul", "Neha", "Amit", "Priya", "Arjun", "Simran", "Rohan", "Sneha", "Vikram", "Ananya"};
+    private static final String[] LAST = {"Sharma", "Patil", "Verma", "Singh", "Mehta", "Kaur", "Deshmukh", "Kulkarni", "Joshi", "Gupta"};
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: java DataGenerator <students> <days> [dir] [seed]");
+            System.exit(2);
+        }
+        int students = Integer.parseInt(args[0]);
+        int days = Integer.parseInt(args[1]);
+        File dir = new File(args.length > 2 ? args[2] : ".");
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 42L;
+        generate(dir, students, days, seed);
+        System.out.println("Wrote " + students + " students x " + days + " days to " + dir.getAbsolutePath());
+    }
+
+    public static String studentId(int i) {
+        return String.format("S%06d", i + 1);
+    }
+
+    /**
+     * Write students.csv and attendance.csv (one row per student per day, about 80% present)
+     * into dir, replacing what is there.
+     */
+    public static void generate(File dir, int students, int days, long seed) throws IOException {
+        dir.mkdirs();
+        Random rnd = new Random(seed);
+        try (PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(new File(dir, "students.csv"))))) {
+            for (int i = 0; i < students; i++) {
+                pw.println(studentId(i) + "," + FIRST[rnd.nextInt(FIRST.length)] + " " + LAST[rnd.nextInt(LAST.length)]);
+            }
+        }
+        try (PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(new File(dir, "attendance.csv"))))) {
+            for (int d = 0; d < days; d++) {
+                String date = START.plusDays(d).toString();
+                for (int i = 0; i < students; i++) {
+                    pw.println(date + "," + studentId(i) + "," + (rnd.nextInt(100) < 80 ? "P" : "A"));
+                }
+            }
+        }
+        // stale sidecar files from an earlier run would describe a different dataset
+        for (String f : new String[]{"attendance.idx", "attendance.bin", "attendance.snap", "attendance.journal", "attendance.journal.old"}) {
+            new File(dir, f).delete();
+        }
+    }
+}
@@ -0,0 +1,287 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+/**
+ * StorageBenchmark.java
+ * Measures the storage and aggregation paths at several data sizes: full load, single-date
+ * lookup, mark-and-save, percentage refresh and single-date export.
+ * Each benchmark is warmed up and then timed over fixed-length iterations (average time
+ * per operation), and results are written as JSON in the same shape as JMH's
+ * -rf json output so runs can be diffed or fed to the usual JMH comparison tools.
+ *
+ * Like JMH, every benchmark runs in its own child JVMs (--forks of them, with the parent's
+ * JVM options), so one benchmark's JIT profile and garbage do not skew the next; --forks 0
+ * runs everything in this JVM. mark.save times the journal append and its fsync (set
+ * -Dattendance.durability to compare modes), and each of its forks starts from freshly
+ * generated data because it changes the files.
+ *
+ * FileStorage works on the current directory, so run this from an empty scratch directory:
+ *   java StorageBenchmark [--scales 100x30,1000x180,10000x365] [--warmup 2] [--iterations 5]
+ *                         [--time-ms 1000] [--forks 1] [--out bench-results.json] [--force]
+ */
+public class StorageBenchmark {
+
+    interface Op {
+        Object run() throws Exception;
+    }
+
+    private static final String[] BENCHMARKS = {
+            "load.attendanceAll", "load.store", "lookup.date", "refresh.percentage", "export.date", "mark.save"};
+    // benchmarks that change the data, so each fork gets a fresh copy
+    private static final Set<String> MUTATING = Collections.singleton("mark.save");
+    // how a child reports its scores to the parent on stdout
+    private static final String SCORES = "@scores ";
+
+    private int warmup = 2;
+    private int iterations = 5;
+    private long timeMs = 1000;
+    private int forks = 1;
+    // mark.save's journal, settled after its measurement
+    private AttendanceJournal journal;
+    private final List<String> results = new ArrayList<>();
+    // results are folded in here so the JIT cannot drop the measured work
+    private long sink;
+
+    public static void main(String[] args) throws Exception {
+        StorageBenchmark b = new StorageBenchmark();
+        String scales = "100x30,1000x180,10000x365";
+        String out = "bench-results.json";
+        String child = null;
+        boolean force = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--scales": scales = args[++i]; break;
+                case "--warmup": b.warmup = Integer.parseInt(args[++i]); break;
+                case "--iterations": b.iterations = Integer.parseInt(args[++i]); break;
+                case "--time-ms": b.timeMs = Long.parseLong(args[++i]); break;
+                case "--forks": b.forks = Integer.parseInt(args[++i]); break;
+                case "--out": out = args[++i]; break;
+                case "--force": force = true; break;
+                case "--child": child = args[++i]; break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(2);
+            }
+        }
+        if (child != null) {
+            // one fork of one benchmark, on data the parent has already generated
+            int[] scale = parseScale(scales);
+            double[] scores = b.measure(b.setup(child, new File("."), scale[0], scale[1]));
+            StringBuilder line = new StringBuilder(SCORES);
+            for (int i = 0; i < scores.length; i++) line.append(i > 0 ? "," : "").append(scores[i]);
+            System.out.println(line.append(" sink ").append(b.sink));
+            return;
+        }
+        if (!force && (new File("students.csv").exists() || new File("attendance.csv").exists())) {
+            System.err.println("students.csv/attendance.csv exist in the current directory; "
+                    + "run from an empty directory or pass --force to overwrite them.");
+            System.exit(2);
+        }
+        for (String scale : scales.split(",")) {
+            int[] p = parseScale(scale);
+            b.runScale(p[0], p[1]);
+        }
+        try (PrintWriter pw = new PrintWriter(new FileWriter(out))) {
+            pw.println("[");
+            pw.println(String.join(",\n", b.results));
+            pw.println("]");
+        }
+        System.out.println("Results written to " + out + " (sink " + b.sink + ")");
+    }
+
+    private static int[] parseScale(String scale) {
+        String[] p = scale.trim().split("x");
+        return new int[]{Integer.parseInt(p[0]), Integer.parseInt(p[1])};
+    }
+
+    private void runScale(int students, int days) throws Exception {
+        System.out.println("== " + students + " students x " + days + " days");
+        File dir = new File(".");
+        prepare(dir, students, days);
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("students", String.valueOf(students));
+        params.put("days", String.valueOf(days));
+
+        for (String name : BENCHMARKS) {
+            List<double[]> scores = new ArrayList<>();
+            if (forks == 0) {
+                if (MUTATING.contains(name)) prepare(dir, students, days);
+                scores.add(measure(setup(name, dir, students, days)));
+            }
+            for (int f = 0; f < forks; f++) {
+                if (MUTATING.contains(name)) prepare(dir, students, days);
+                scores.add(fork(name, students, days));
+            }
+            report(name, params, scores);
+        }
+    }
+
+    /**
+     * Generate the data and load it once, which migrates the csv and builds attendance.idx.
+     */
+    private static void prepare(File dir, int students, int days) throws IOException {
+        DataGenerator.generate(dir, students, days, 42L);
+        AttendanceStore.load(dir);
+    }
+
+    /**
+     * The operation a benchmark times, with its setup (loading the store, picking students)
+     * done up front.
+     */
+    private Op setup(String name, File dir, int students, int days) throws Exception {
+        AttendanceStore store = AttendanceStore.load(dir);
+        List<Student> roster = FileStorage.loadStudents(dir);
+        Random rnd = new Random(7);
+        switch (name) {
+            case "load.attendanceAll":
+                return () -> FileStorage.loadAttendanceAll(dir).size();
+            case "load.store":
+                return () -> AttendanceStore.load(dir).getDates().size();
+            case "lookup.date":
+                return () -> FileStorage.getAttendanceForDate(dir, randomDate(rnd, days)).size();
+            case "refresh.percentage":
+                return () -> {
+                    double sum = 0;
+                    for (Student s : roster) sum += store.getPercentage(s.getId());
+                    return sum;
+                };
+            case "export.date": {
+                File export = File.createTempFile("bench_export", ".csv");
+                export.deleteOnExit();
+                return () -> {
+                    FileStorage.exportAttendanceForDate(roster, store.getForDate(randomDate(rnd, days)), export);
+                    return export.length();
+                };
+            }
+            case "mark.save": {
+                journal = new AttendanceJournal(store);
+                List<String> section = new ArrayList<>();
+                for (int i = 0; i < Math.min(60, students); i++) section.add(DataGenerator.studentId(i));
+                // flush inside the op so the append and its fsync are timed, not left to the
+                // idle flusher; compactions the journal size triggers run in the background
+                // as they do in the app
+                return () -> {
+                    journal.mark(randomDate(rnd, days), section, rnd.nextBoolean() ? "P" : "A");
+                    journal.flush();
+                    return section.size();
+                };
+            }
+            default:
+                throw new IllegalArgumentException("unknown benchmark: " + name);
+        }
+    }
+
+    /**
+     * Run one fork of a benchmark in a child JVM with this JVM's options and classpath, and
+     * return its scores.
+     */
+    private double[] fork(String name, int students, int days) throws Exception {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(new File(System.getProperty("java.home"), "bin" + File.separator + "java").getPath());
+        cmd.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        cmd.addAll(Arrays.asList("-cp", System.getProperty("java.class.path"), StorageBenchmark.class.getName(),
+                "--child", name, "--scales", students + "x" + days,
+                "--warmup", String.valueOf(warmup), "--iterations", String.valueOf(iterations),
+                "--time-ms", String.valueOf(timeMs)));
+        Process p = new ProcessBuilder(cmd).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        double[] scores = null;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (!line.startsWith(SCORES)) {
+                    System.out.println(line);
+                    continue;
+                }
+                String[] parts = line.substring(SCORES.length()).split(" ");
+                String[] values = parts[0].split(",");
+                scores = new double[values.length];
+                for (int i = 0; i < values.length; i++) scores[i] = Double.parseDouble(values[i]);
+                sink += Long.parseLong(parts[2]);
+            }
+        }
+        int exit = p.waitFor();
+        if (exit != 0 || scores == null) throw new IOException("fork of " + name + " failed (exit " + exit + ")");
+        return scores;
+    }
+
+    private static String randomDate(Random rnd, int days) {
+        return DataGenerator.START.plusDays(rnd.nextInt(days)).toString();
+    }
+
+    private double[] measure(Op op) throws Exception {
+        for (int i = 0; i < warmup; i++) iteration(op);
+        double[] scores = new double[iterations];
+        for (int i = 0; i < iterations; i++) scores[i] = iteration(op);
+        if (journal != null) {
+            // let the last compaction finish before the files are reused or the fork exits
+            journal.compactAsync().get();
+            journal.close();
+            journal = null;
+        }
+        return scores;
+    }
+
+    private void report(String name, Map<String, String> params, List<double[]> forkScores) {
+        int count = 0;
+        for (double[] f : forkScores) count += f.length;
+        double[] scores = new double[count];
+        int k = 0;
+        for (double[] f : forkScores) {
+            for (double s : f) scores[k++] = s;
+        }
+
+        double mean = 0;
+        for (double s : scores) mean += s;
+        mean /= scores.length;
+        double var = 0;
+        for (double s : scores) var += (s - mean) * (s - mean);
+        double sd = scores.length > 1 ? Math.sqrt(var / (scores.length - 1)) : 0;
+        // ~99.9% confidence half-width, as JMH reports it
+        double error = 3.29 * sd / Math.sqrt(scores.length);
+        System.out.printf("%-22s %12.4f +- %.4f ms/op%n", name, mean, error);
+
+        StringBuilder json = new StringBuilder();
+        json.append("  {\"benchmark\": \"").append(name).append("\", \"mode\": \"avgt\", ")
+                .append("\"warmupIterations\": ").append(warmup)
+                .append(", \"measurementIterations\": ").append(iterations)
+                .append(", \"measurementTime\": \"").append(timeMs).append(" ms\"")
+                .append(", \"forks\": ").append(forks).append(", \"params\": {");
+        int n = 0;
+        for (Map.Entry<String, String> e : params.entrySet()) {
+            if (n++ > 0) json.append(", ");
+            json.append('"').append(e.getKey()).append("\": \"").append(e.getValue()).append('"');
+        }
+        json.append("}, \"primaryMetric\": {\"score\": ").append(mean)
+                .append(", \"scoreError\": ").append(error)
+                .append(", \"scoreUnit\": \"ms/op\", \"rawData\": [");
+        for (int f = 0; f < forkScores.size(); f++) {
+            json.append(f > 0 ? ", [" : "[");
+            double[] fs = forkScores.get(f);
+            for (int i = 0; i < fs.length; i++) {
+                if (i > 0) json.append(", ");
+                json.append(fs[i]);
+            }
+            json.append(']');
+        }
+        json.append("]}}");
+        results.add(json.toString());
+    }
+
+    /**
+     * Run op repeatedly for timeMs (at least once); return the average ms per call.
+     */
+    private double iteration(Op op) throws Exception {
+        long ops = 0;
+        long start = System.nanoTime();
+        long end = start + timeMs * 1_000_000L;
+        long now;
+        do {
+            Object r = op.run();
+            sink += r == null ? 0 : r.hashCode();
+            ops++;
+            now = System.nanoTime();
+        } while (now < end);
+        return (now - start) / 1e6 / ops;
+    }
+}
@@ -0,0 +1,134 @@
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * AttendanceServerTest.java
+ * Runs an AttendanceServer on a scratch data directory, on loopback with a free port, and
+ * checks the HTTP API end to end through AttendanceClient and plain requests. No test
+ * framework is needed; a failed check throws and the exit code is non-zero:
+ *   javac -d out *.java test/AttendanceServerTest.java && java -cp out AttendanceServerTest
+ */
+public class AttendanceServerTest {
+
+    private static int checks;
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Files.createTempDirectory("attendance-server-test");
+        try {
+            FileStorage.saveStudents(dir.toFile(), Arrays.asList(new Student("S1", "Asha"),
+                    new Student("S2", "Ben"), new Student("S3", "Chen")));
+            bindsLoopbackByDefault(dir.toFile());
+            apiRoundTrip(dir.toFile());
+            marksSurviveRestart(dir.toFile());
+            System.out.println("AttendanceServerTest: " + checks + " checks passed");
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    private static void bindsLoopbackByDefault(File dir) throws Exception {
+        AttendanceServer server = AttendanceServer.start(dir, null, 0);
+        try {
+            check(server.getAddress().isLoopbackAddress(), "default bind is loopback, got " + server.getAddress());
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static void apiRoundTrip(File dir) throws Exception {
+        AttendanceServer server = AttendanceServer.start(dir, null, 0);
+        String base = "http://127.0.0.1:" + server.getPort();
+        AttendanceClient client = new AttendanceClient(base);
+        try {
+            check(client.loadStudents().size() == 3, "three students listed");
+
+            // one request, several dates: all of it is on disk when the response arrives
+            client.markAll(Arrays.asList(new String[]{"2024-01-01", "S1", "P"},
+                    new String[]{"2024-01-01", "S2", "A"}, new String[]{"2024-01-02", "S1", "A"},
+                    new String[]{"2024-01-03", "S1", "P"}, new String[]{"2024-01-03", "S3", "P"}));
+            check(journalLines(dir) == 5, "bulk marks journaled before the reply, got " + journalLines(dir));
+            client.mark("2024-01-02", Arrays.asList("S2", "S3"), "P");
+
+            Map<String, String> day = client.getForDate("2024-01-01");
+            check("P".equals(day.get("S1")) && "A".equals(day.get("S2")) && day.size() == 2,
+                    "attendance of 2024-01-01: " + day);
+            check(client.loadStore().toRecords().size() == 7, "/records lists every record");
+
+            check(request(base, "GET", "/percentage?id=S1", "").equals("200 2,3,66.67"), "lifetime percentage");
+            check(request(base, "GET", "/percentage?id=S1&from=2024-01-02&to=2024-01-03", "").equals("200 1,2,50.00"),
+                    "range percentage");
+            SortedMap<String, int[]> counts = client.getDayCounts(null, null);
+            check(counts.size() == 3 && counts.get("2024-01-02")[0] == 2, "day counts");
+            Map<String, int[]> below = client.getDefaulters(75, null, null);
+            check(below.containsKey("S1") && !below.containsKey("S3"), "defaulters below 75%: " + below.keySet());
+            check(client.getAbsentEveryDay(LocalDate.parse("2024-01-01"), LocalDate.parse("2024-01-01"))
+                    .equals(Collections.singletonList("S2")), "absent every day");
+
+            check(request(base, "GET", "/attendance?date=2024-13-01", "").startsWith("400 "), "bad date is a 400");
+            check(request(base, "POST", "/marks", "2024-01-01,S1,X").startsWith("400 "), "bad status is a 400");
+            check(request(base, "GET", "/no/such/path", "").startsWith("404 "), "unknown path is a 404");
+            for (int i = 0; i < 20; i++) request(base, "GET", "/probe" + i, "");
+            for (String line : Metrics.summary()) {
+                check(!line.startsWith("server/no") && !line.startsWith("server/probe"), "unknown paths share one metric: " + line);
+            }
+
+            client.removeStudents(Collections.singletonList("S2"));
+            check(client.getForDate("2024-01-01").size() == 1, "removed student's records are gone");
+            client.flush();
+            check(journalLines(dir) == 0, "flush compacts the journal");
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static void marksSurviveRestart(File dir) throws Exception {
+        AttendanceServer server = AttendanceServer.start(dir, null, 0);
+        try {
+            AttendanceClient client = new AttendanceClient("http://127.0.0.1:" + server.getPort());
+            check(client.loadStore().toRecords().size() == 5, "compacted records reloaded");
+            client.mark("2024-01-04", Collections.singletonList("S3"), "A");
+        } finally {
+            server.stop();
+        }
+        AttendanceStore reloaded = AttendanceStore.load(dir);
+        check("A".equals(reloaded.getStatus("2024-01-04", "S3")), "journaled mark replayed after stop");
+    }
+
+    // "code body" of one plain request
+    private static String request(String base, String method, String path, String body) throws IOException {
+        HttpURLConnection c = (HttpURLConnection) new URL(base + path).openConnection();
+        c.setRequestMethod(method);
+        if (method.equals("POST")) {
+            c.setDoOutput(true);
+            try (OutputStream out = c.getOutputStream()) {
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        int code = c.getResponseCode();
+        InputStream in = code < 400 ? c.getInputStream() : c.getErrorStream();
+        String text = in == null ? "" : new String(in.readAllBytes(), StandardCharsets.UTF_8).trim();
+        c.disconnect();
+        return code + " " + text;
+    }
+
+    private static int journalLines(File dir) throws IOException {
+        Path p = new File(dir, "attendance.journal").toPath();
+        return Files.exists(p) ? Files.readAllLines(p, StandardCharsets.UTF_8).size() : 0;
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) throw new AssertionError(what);
+        checks++;
+    }
+
+    private static void deleteTree(Path dir) throws IOException {
+        try (java.util.stream.Stream<Path> walk = Files.walk(dir)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}